@@ -0,0 +1,182 @@
+package org.example.ftpserver.benchmarks;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The bare minimum of an FTP client for driving the server in benchmarks:
+ * no retries, no parsing beyond reply codes and PASV, and any unexpected
+ * reply is an IOException so a broken run cannot pass for a fast one.
+ */
+public class BenchClient implements AutoCloseable {
+    private static final String HOST = "127.0.0.1";
+
+    private final int port;
+    private Socket control;
+    private BufferedReader reader;
+    private Writer writer;
+    private SSLContext tls;
+    private boolean resumeTls;
+
+    public BenchClient(int port) throws IOException {
+        this.port = port;
+        this.control = new Socket(HOST, port);
+        this.control.setTcpNoDelay(true);
+        openStreams();
+        expect(220);
+    }
+
+    public static BenchClient login(int port) throws IOException {
+        BenchClient client = new BenchClient(port);
+        client.login(EmbeddedServer.USER, EmbeddedServer.PASSWORD);
+        return client;
+    }
+
+    private void openStreams() throws IOException {
+        reader = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8));
+        writer = new OutputStreamWriter(control.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    public void login(String user, String password) throws IOException {
+        command("USER " + user, 331);
+        command("PASS " + password, 230);
+    }
+
+    /**
+     * AUTH TLS, PBSZ 0 and PROT P. With {@code resume}, data connections
+     * are keyed on the control connection's host and port, so they resume
+     * its TLS session instead of running a full handshake each.
+     */
+    public void startTls(SSLContext context, boolean resume) throws IOException {
+        command("AUTH TLS", 234);
+        tls = context;
+        resumeTls = resume;
+        control = context.getSocketFactory().createSocket(control, HOST, port, true);
+        ((SSLSocket) control).startHandshake();
+        openStreams();
+        command("PBSZ 0", 200);
+        command("PROT P", 200);
+    }
+
+    public String command(String line, int expectedCode) throws IOException {
+        send(line);
+        return expect(expectedCode);
+    }
+
+    public void send(String line) throws IOException {
+        writer.write(line + "\r\n");
+        writer.flush();
+    }
+
+    // Writes several commands in one go, as a pipelining client would
+    public void sendAll(String[] lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append("\r\n");
+        }
+        writer.write(sb.toString());
+        writer.flush();
+    }
+
+    public String expect(int expectedCode) throws IOException {
+        String reply = readReply();
+        if (!reply.startsWith(String.valueOf(expectedCode))) {
+            throw new IOException("Expected " + expectedCode + " but got: " + reply);
+        }
+        return reply;
+    }
+
+    // The last line of a reply, multi-line replies included
+    private String readReply() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Connection closed by server");
+        }
+        if (line.length() > 3 && line.charAt(3) == '-') {
+            String end = line.substring(0, 3) + " ";
+            while (!line.startsWith(end)) {
+                line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Connection closed by server");
+                }
+            }
+        }
+        return line;
+    }
+
+    private Socket passive() throws IOException {
+        String reply = command("PASV", 227);
+        String[] numbers = reply.substring(reply.indexOf('(') + 1, reply.indexOf(')')).split(",");
+        int dataPort = Integer.parseInt(numbers[4].trim()) * 256 + Integer.parseInt(numbers[5].trim());
+        Socket data = new Socket(HOST, dataPort);
+        data.setTcpNoDelay(true);
+        if (tls == null) {
+            return data;
+        }
+        // Without resumption the data port keys the session cache, so every connection is a new session
+        return tls.getSocketFactory().createSocket(data, HOST, resumeTls ? port : dataPort, true);
+    }
+
+    /**
+     * Runs a command that sends data to us (RETR, LIST, NLST, MLSD) and
+     * reads it with a buffer of {@code bufferSize} bytes.
+     *
+     * @return number of bytes received
+     */
+    public long download(String line, int bufferSize) throws IOException {
+        long total = 0;
+        try (Socket data = passive()) {
+            command(line, 150);
+            InputStream in = data.getInputStream();
+            byte[] buffer = new byte[bufferSize];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+        }
+        expect(226);
+        return total;
+    }
+
+    /**
+     * STOR of {@code size} bytes, written {@code bufferSize} bytes at a time.
+     */
+    public void upload(String name, long size, int bufferSize) throws IOException {
+        try (Socket data = passive()) {
+            command("STOR " + name, 150);
+            OutputStream out = data.getOutputStream();
+            byte[] buffer = new byte[bufferSize];
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = (byte) (i * 31);
+            }
+            long remaining = size;
+            while (remaining > 0) {
+                int n = (int) Math.min(remaining, buffer.length);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+            out.flush();
+        }
+        expect(226);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            send("QUIT");
+        } catch (IOException e) {
+            // The server may already be gone
+        } finally {
+            control.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.ftpserver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commands per second over a loopback control connection, one at a time
+ * and pipelined, plus the cost of a whole connect-and-login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ControlChannelBenchmark {
+    private static final int PIPELINE_DEPTH = 16;
+
+    // What control sessions run on, see SessionExecutor
+    @Param({"virtual", "platform"})
+    public String sessionThreads;
+
+    // Credentials verified recently are remembered; 0 makes every login run PBKDF2
+    @Param({"10000", "0"})
+    public String credentialCache;
+
+    private EmbeddedServer server;
+
+    @State(Scope.Thread)
+    public static class Session {
+        BenchClient client;
+
+        @Setup(Level.Trial)
+        public void open(ControlChannelBenchmark benchmark) throws IOException {
+            client = BenchClient.login(benchmark.server.getPort());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new EmbeddedServer(Map.of(
+                "ftp.sessionThreads", sessionThreads,
+                "ftp.accounts.credentialCache", credentialCache));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public String roundTrip(Session session) throws IOException {
+        return session.client.command("PWD", 257);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public String pipelined(Session session) throws IOException {
+        String[] lines = new String[PIPELINE_DEPTH];
+        Arrays.fill(lines, "PWD");
+        session.client.sendAll(lines);
+        String reply = null;
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            reply = session.client.expect(257);
+        }
+        return reply;
+    }
+
+    @Benchmark
+    public void connectAndLogin() throws IOException {
+        try (BenchClient client = BenchClient.login(server.getPort())) {
+            client.command("PWD", 257);
+        }
+    }
+}
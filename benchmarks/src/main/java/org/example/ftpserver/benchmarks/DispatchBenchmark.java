@@ -0,0 +1,97 @@
+package org.example.ftpserver.benchmarks;
+
+import org.example.ftpserver.Account;
+import org.example.ftpserver.Command;
+import org.example.ftpserver.CommandHandler;
+import org.example.ftpserver.CommandParser;
+import org.example.ftpserver.ConnectionHandler;
+import org.example.ftpserver.LocalStorage;
+import org.example.ftpserver.SessionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommandHandler.handle for commands that need no data connection, on a
+ * logged-in session whose replies are discarded instead of written to a
+ * socket. This is the cost of dispatch plus the command itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({"PWD", "SYST", "TYPE I", "CWD /", "SIZE file.bin", "MLST file.bin", "FEAT", "XYZZY"})
+    public String line;
+
+    private Path root;
+    private Command command;
+    private DiscardingConnection conn;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("ftp-bench-dispatch");
+        Files.write(root.resolve("file.bin"), new byte[4096]);
+
+        SessionRegistry.Session session = SessionRegistry.getInstance().open(InetAddress.getLoopbackAddress());
+        conn = new DiscardingConnection(session);
+        conn.setCurrentAccount(new Account("bench", "unused", root.toString()));
+        conn.setStorage(new LocalStorage(root));
+        conn.setLoggedIn(true);
+        conn.setWorkingDir("/");
+        command = CommandParser.parse(line);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SessionRegistry.getInstance().close(conn.getSession());
+        Files.deleteIfExists(root.resolve("file.bin"));
+        Files.deleteIfExists(root);
+    }
+
+    @Benchmark
+    public int dispatch() {
+        CommandHandler.handle(command, conn);
+        return conn.replies;
+    }
+
+    // A session without a socket: replies are only counted
+    static class DiscardingConnection extends ConnectionHandler {
+        int replies;
+
+        DiscardingConnection(SessionRegistry.Session session) {
+            super(null, null, session, false);
+        }
+
+        @Override
+        public void sendMessage(String message) {
+            replies++;
+        }
+
+        @Override
+        public void holdReplies() {
+        }
+
+        @Override
+        public void flushReplies() {
+        }
+    }
+}
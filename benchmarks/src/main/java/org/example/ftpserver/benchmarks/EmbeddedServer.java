@@ -0,0 +1,122 @@
+package org.example.ftpserver.benchmarks;
+
+import org.example.ftpserver.Account;
+import org.example.ftpserver.AccountStore;
+import org.example.ftpserver.FTPServer;
+import org.example.ftpserver.PasswordHasher;
+import org.example.ftpserver.SessionExecutor;
+import org.example.ftpserver.Storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A server on a free loopback port with one account, "bench", whose root
+ * is a fresh temporary directory. Fixtures are written with
+ * {@link #write(String, byte[])}, which goes through the server's storage,
+ * so they land in memory when {@code ftp.storage} is "memory".
+ * <p>
+ * The server reads its configuration once, when ServerConfig is first
+ * loaded, so {@code properties} only take effect if this is started before
+ * anything else touches the server classes. JMH runs every benchmark and
+ * parameter combination in its own JVM, which makes that the normal case.
+ */
+public class EmbeddedServer implements AutoCloseable {
+    public static final String USER = "bench";
+    public static final String PASSWORD = "bench";
+
+    private final Path root;
+    private final Path accounts;
+    private final FTPServer server;
+    private final int port;
+
+    public EmbeddedServer(Map<String, String> properties) throws IOException {
+        this.root = Files.createTempDirectory("ftp-bench-root");
+        this.accounts = Files.createTempFile("ftp-bench-accounts", ".txt");
+
+        System.setProperty("ftp.accounts", accounts.toString());
+        // Keep benchmark runs from writing digests into the working directory
+        System.setProperty("ftp.digest.cacheFile", "");
+        properties.forEach(System::setProperty);
+
+        Files.writeString(accounts, USER + " " + PasswordHasher.hash(PASSWORD) + " " + root.toAbsolutePath() + "\n");
+
+        this.port = freePort();
+        this.server = new FTPServer(port, AccountStore.load("database.txt"), SessionExecutor.virtualThreads(10_000));
+        Thread.ofPlatform().name("ftp-bench-server").daemon().start(server::start);
+        awaitListening();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    // The account's files, as the server sees them
+    public Storage getStorage() {
+        return Storage.forAccount(new Account(USER, "", root.toAbsolutePath().toString()));
+    }
+
+    // Stores a file at {@code path}, relative to the account's root
+    public void write(String path, byte[] content) throws IOException {
+        try (WritableByteChannel channel = getStorage().openWrite("/" + path, 0)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public void mkdir(String path) throws IOException {
+        getStorage().mkdirs("/" + path);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void awaitListening() throws IOException {
+        for (int attempt = 0; attempt < 200; attempt++) {
+            try (Socket ignored = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the server", interrupted);
+                }
+            }
+        }
+        throw new IOException("Server did not start listening on port " + port);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop();
+        Files.deleteIfExists(accounts);
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.ftpserver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small-file RETR under PROT P, where the data connection's TLS handshake
+ * dominates: with the control session resumed on every data connection,
+ * and with a full handshake each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FtpsBenchmark {
+    @Param({"TLSv1.2", "TLSv1.3"})
+    public String protocol;
+
+    @Param({"true", "false"})
+    public boolean resume;
+
+    @Param({"1024", "65536"})
+    public int fileSize;
+
+    private Path keystore;
+    private EmbeddedServer server;
+    private BenchClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, GeneralSecurityException, InterruptedException {
+        keystore = createKeystore();
+        server = new EmbeddedServer(Map.of(
+                "ftp.tls.keystore", keystore.toString(),
+                "ftp.tls.keystorePassword", "changeit"));
+        server.write("small.bin", new byte[fileSize]);
+
+        SSLContext context = SSLContext.getInstance(protocol);
+        context.init(null, new TrustManager[]{new TrustAll()}, null);
+        client = new BenchClient(server.getPort());
+        client.startTls(context, resume);
+        client.login(EmbeddedServer.USER, EmbeddedServer.PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        Files.deleteIfExists(keystore);
+    }
+
+    @Benchmark
+    public long retr() throws IOException {
+        return client.download("RETR small.bin", 64 * 1024);
+    }
+
+    // A throwaway self-signed certificate, made with the JDK's keytool
+    private static Path createKeystore() throws IOException, InterruptedException {
+        Path file = Files.createTempFile("ftp-bench", ".p12");
+        Files.delete(file);
+        Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "ftp",
+                "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", file.toString(), "-storepass", "changeit")
+                .redirectErrorStream(true)
+                .start();
+        process.getInputStream().transferTo(OutputStream.nullOutputStream());
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed with exit code " + process.exitValue());
+        }
+        return file;
+    }
+
+    // The benchmark talks to its own server with its own throwaway certificate
+    private static class TrustAll implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
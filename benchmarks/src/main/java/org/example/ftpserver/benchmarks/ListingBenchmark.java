@@ -0,0 +1,75 @@
+package org.example.ftpserver.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full directory listing over loopback, for LIST, NLST and MLSD of a
+ * generated directory, with the LIST cache on or off and the directory on
+ * disk or in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+    @Param({"1000", "100000"})
+    public int entries;
+
+    @Param({"LIST", "NLST", "MLSD"})
+    public String command;
+
+    // Only LIST is cached; false stops anything from fitting in the cache
+    @Param({"true", "false"})
+    public boolean listCache;
+
+    // "memory" takes the disk out of the measurement; memory listings are never cached
+    @Param({"local", "memory"})
+    public String storage;
+
+    private EmbeddedServer server;
+    private BenchClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new EmbeddedServer(listCache
+                ? Map.of("ftp.storage", storage)
+                : Map.of("ftp.storage", storage, "ftp.list.cacheMaxEntry", "0"));
+        server.mkdir("dir");
+        byte[] content = new byte[128];
+        for (int i = 0; i < entries; i++) {
+            // A mix of sizes and name lengths, as in a real upload directory
+            server.write("dir/file-" + i + (i % 3 == 0 ? "-with-a-longer-name.dat" : ".txt"),
+                    i % 10 == 0 ? content : new byte[0]);
+        }
+        client = BenchClient.login(server.getPort());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public long listing() throws IOException {
+        return client.download(command + " dir", 64 * 1024);
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.ftpserver.benchmarks;
+
+import org.example.ftpserver.Command;
+import org.example.ftpserver.CommandParser;
+import org.example.ftpserver.Verb;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a command line into a Command: the byte path the server uses,
+ * the verb lookup on its own, and the older String path for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"PWD", "TYPE I", "RETR reports/2024/summary.csv", "STOR a file name with spaces.txt", "XYZZY unknown"})
+    public String line;
+
+    private byte[] bytes;
+    private int verbLength;
+
+    @Setup
+    public void setup() {
+        bytes = line.getBytes(StandardCharsets.UTF_8);
+        int space = line.indexOf(' ');
+        verbLength = space >= 0 ? space : bytes.length;
+    }
+
+    @Benchmark
+    public Command parseBytes() {
+        return CommandParser.parse(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public Verb decodeVerb() {
+        return Verb.decode(bytes, 0, verbLength);
+    }
+
+    @Benchmark
+    public Command parseString() {
+        return CommandParser.parse(line);
+    }
+}
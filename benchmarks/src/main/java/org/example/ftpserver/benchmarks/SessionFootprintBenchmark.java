@@ -0,0 +1,149 @@
+package org.example.ftpserver.benchmarks;
+
+import org.example.ftpserver.SessionRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory cost of idle logged-in sessions: how much heap, and resident
+ * memory where /proc is available, each one adds. The secondary results
+ * {@code heapBytesPerSession}, {@code rssBytesPerSession} and
+ * {@code sessionsPerGb} are the numbers of interest; the time is just how
+ * long opening them took.
+ * <p>
+ * Client and server share the JVM, so the figures include a client socket
+ * per session. Platform thread stacks live outside the heap and only show
+ * up in the resident size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SessionFootprintBenchmark {
+    private static final Path STATUS = Path.of("/proc/self/status");
+
+    @Param({"1000", "5000"})
+    public int sessions;
+
+    @Param({"virtual", "platform"})
+    public String sessionThreads;
+
+    private EmbeddedServer server;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long heapBytesPerSession;
+        public long rssBytesPerSession;
+        public long sessionsPerGb;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new EmbeddedServer(Map.of(
+                "ftp.sessionThreads", sessionThreads,
+                "ftp.maxSessionsPerIp", "0",
+                "ftp.maxSessionsPerUser", "0"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public void openIdleSessions(Footprint footprint) throws IOException, InterruptedException {
+        long heapBefore = usedHeapAfterGc();
+        long rssBefore = residentBytes();
+
+        List<Socket> open = new ArrayList<>(sessions);
+        byte[] login = ("USER " + EmbeddedServer.USER + "\r\nPASS " + EmbeddedServer.PASSWORD + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        try {
+            for (int i = 0; i < sessions; i++) {
+                Socket socket = new Socket("127.0.0.1", server.getPort());
+                open.add(socket);
+                InputStream in = socket.getInputStream();
+                expect(in, "220");
+                socket.getOutputStream().write(login);
+                expect(in, "331");
+                expect(in, "230");
+            }
+
+            long heap = usedHeapAfterGc() - heapBefore;
+            long rss = residentBytes() - rssBefore;
+            footprint.heapBytesPerSession = heap / sessions;
+            footprint.rssBytesPerSession = rssBefore > 0 ? rss / sessions : 0;
+            long perSession = Math.max(1, Math.max(footprint.heapBytesPerSession, footprint.rssBytesPerSession));
+            footprint.sessionsPerGb = (1L << 30) / perSession;
+        } finally {
+            for (Socket socket : open) {
+                socket.close();
+            }
+        }
+
+        // Let the server notice the closed connections before the next iteration measures its baseline
+        while (SessionRegistry.getInstance().getActiveSessions() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void expect(InputStream in, String code) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        if (!line.toString().startsWith(code)) {
+            throw new IOException("Expected " + code + " but got: " + line);
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // VmRSS in bytes, or 0 where /proc is not available
+    private static long residentBytes() throws IOException {
+        if (!Files.isReadable(STATUS)) {
+            return 0;
+        }
+        for (String line : Files.readAllLines(STATUS)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+        return 0;
+    }
+}
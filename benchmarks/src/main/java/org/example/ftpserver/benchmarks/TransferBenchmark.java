@@ -0,0 +1,107 @@
+package org.example.ftpserver.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RETR and STOR over loopback. Besides transfers per second, the
+ * {@code bytes} secondary result gives the throughput in bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+    @Param({"4096", "1048576", "67108864"})
+    public int fileSize;
+
+    // Client-side read and write size
+    @Param({"8192", "65536", "1048576"})
+    public int bufferSize;
+
+    // Size of the server's pooled STOR buffers
+    @Param({"65536", "1048576"})
+    public String storBufferSize;
+
+    // Digests computed while STOR writes; "none" switches that off
+    @Param({"SHA-256,CRC32", "none"})
+    public String digestOnStore;
+
+    // "memory" measures the protocol and the data connection without the disk
+    @Param({"local", "memory"})
+    public String storage;
+
+    private EmbeddedServer server;
+
+    @State(Scope.Thread)
+    public static class Session {
+        BenchClient client;
+
+        @Setup(Level.Trial)
+        public void open(TransferBenchmark benchmark) throws IOException {
+            client = BenchClient.login(benchmark.server.getPort());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new EmbeddedServer(Map.of(
+                "ftp.stor.bufferSize", storBufferSize,
+                "ftp.digest.onStore", digestOnStore,
+                "ftp.storage", storage));
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        server.write("download.bin", content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public void retr(Session session, Bytes bytes) throws IOException {
+        bytes.bytes += session.client.download("RETR download.bin", bufferSize);
+    }
+
+    @Benchmark
+    public void stor(Session session, Bytes bytes) throws IOException {
+        session.client.upload("upload.bin", fileSize, bufferSize);
+        bytes.bytes += fileSize;
+    }
+}
@@ -1,22 +1,114 @@
 package org.example.ftpclient;
 
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.*;
 import java.net.Socket;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class CommandHandler {
     private static final int BUFFER_SIZE = 1024;
+    private static final int ZLIB_BUFFER_SIZE = 64 * 1024;
+    // Đang ở MODE Z: dữ liệu trên kênh data được nén deflate
+    private static boolean compressed;
+    // Sau AUTH TLS + PROT P: kênh data cũng đi qua TLS
+    private static SSLSocketFactory tlsFactory;
+    private static boolean dataProtected;
+
+    // Lệnh AUTH TLS: Chuyển kênh điều khiển sang TLS, trả về socket mới hoặc null nếu server từ chối
+    public static SSLSocket startTls(Socket controlSocket, PrintWriter writer, BufferedReader reader) throws IOException {
+        writer.println("AUTH TLS");
+        String response = readResponse(reader);
+        System.out.println("\033[32m" + response + "\033[0m");
+        if (!response.startsWith("234")) {
+            return null;
+        }
+        // Chứng chỉ server được kiểm tra bằng truststore mặc định (-Djavax.net.ssl.trustStore=...)
+        tlsFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        SSLSocket sslSocket = (SSLSocket) tlsFactory.createSocket(controlSocket,
+                controlSocket.getInetAddress().getHostAddress(), controlSocket.getPort(), true);
+        sslSocket.startHandshake();
+        return sslSocket;
+    }
+
+    // Lệnh PBSZ 0 + PROT P: Mã hoá luôn cả kênh data
+    public static boolean protectData(PrintWriter writer, BufferedReader reader) throws IOException {
+        writer.println("PBSZ 0");
+        String response = readResponse(reader);
+        System.out.println("\033[32m" + response + "\033[0m");
+        if (!response.startsWith("200")) {
+            return false;
+        }
+        writer.println("PROT P");
+        response = readResponse(reader);
+        System.out.println("\033[32m" + response + "\033[0m");
+        dataProtected = response.startsWith("200");
+        return dataProtected;
+    }
+
+    // Mở kết nối data tới cổng PASV, bọc TLS nếu đang PROT P
+    static Socket openDataSocket(Socket controlSocket, int passivePort) throws IOException {
+        Socket dataSocket = new Socket(controlSocket.getInetAddress(), passivePort);
+        if (!dataProtected) {
+            return dataSocket;
+        }
+        dataSocket.setTcpNoDelay(true); // các gói bắt tay TLS nhỏ, không để Nagle giữ lại
+        // Dùng host:port của kênh điều khiển để JSSE đưa lại phiên TLS đã có (resume, bắt tay rút gọn).
+        // Bắt tay chỉ bắt đầu ở lần đọc/ghi đầu tiên, tức là sau khi server đã trả lời 150
+        SSLSocket sslSocket = (SSLSocket) tlsFactory.createSocket(dataSocket,
+                controlSocket.getInetAddress().getHostAddress(), controlSocket.getPort(), true);
+        sslSocket.setUseClientMode(true);
+        return sslSocket;
+    }
+
+    // Lệnh MODE Z / MODE S: Bật/tắt nén dữ liệu khi truyền
+    public static boolean setCompression(PrintWriter writer, BufferedReader reader, boolean enable) throws IOException {
+        writer.println(enable ? "MODE Z" : "MODE S");
+        String response = readResponse(reader);
+        System.out.println("\033[32m" + response + "\033[0m");
+        if (response.startsWith("200")) {
+            compressed = enable;
+        }
+        return compressed;
+    }
+
+    public static boolean isCompressed() {
+        return compressed;
+    }
+
+    // Luồng đọc từ kênh data, giải nén nếu đang ở MODE Z
+    static InputStream dataInput(Socket dataSocket) throws IOException {
+        InputStream in = dataSocket.getInputStream();
+        return compressed ? new InflaterInputStream(new BufferedInputStream(in, ZLIB_BUFFER_SIZE)) : in;
+    }
+
+    // Luồng ghi ra kênh data, nén nếu đang ở MODE Z; close() sẽ kết thúc luồng nén
+    static OutputStream dataOutput(Socket dataSocket) throws IOException {
+        OutputStream out = dataSocket.getOutputStream();
+        return compressed ? new DeflaterOutputStream(new BufferedOutputStream(out, ZLIB_BUFFER_SIZE)) : out;
+    }
 
     // Lệnh LIST: Liệt kê file/thư mục
     public static void listRemote(Socket controlSocket, PrintWriter writer, BufferedReader reader) throws IOException {
+        listRemote(controlSocket, writer, reader, "LIST", null);
+    }
+
+    // Lệnh LIST/NLST với đường dẫn hoặc mẫu glob (vd: logs/*.gz), server tự lọc
+    public static void listRemote(Socket controlSocket, PrintWriter writer, BufferedReader reader, String command, String pathOrPattern) throws IOException {
         writer.println("PASV");
         String response = reader.readLine();
         System.out.println("\033[32m" + response + "\033[0m");
 
         int passivePort = extractPassivePort(response);
-        try (Socket dataSocket = new Socket(controlSocket.getInetAddress(), passivePort);
-             BufferedReader dataReader = new BufferedReader(new InputStreamReader(dataSocket.getInputStream()))) { // Luồng dữ liệu đầu vào để nhận ds file
-            writer.println("LIST");
-            System.out.println("\033[32m" + readResponse(reader) + "\033[0m");
+        try (Socket dataSocket = openDataSocket(controlSocket, passivePort);
+             BufferedReader dataReader = new BufferedReader(new InputStreamReader(dataInput(dataSocket)))) { // Luồng dữ liệu đầu vào để nhận ds file
+            writer.println(pathOrPattern == null || pathOrPattern.isBlank() ? command : command + " " + pathOrPattern);
+            response = readResponse(reader);
+            System.out.println("\033[32m" + response + "\033[0m");
+            if (!response.startsWith("150")) {
+                return;
+            }
             String line;
             while ((line = dataReader.readLine()) != null) {
                 System.out.println(line);
@@ -28,25 +120,48 @@ public class CommandHandler {
 
     // Lệnh RETR: Tải file từ server
     public static void retrieveFile(Socket controlSocket, PrintWriter writer, BufferedReader reader, String retrFileName) throws IOException {
+        retrieveFile(controlSocket, writer, reader, retrFileName, false);
+    }
+
+    // Lệnh REST + RETR: Tải tiếp file từ cuối bản local đang có
+    public static void retrieveFile(Socket controlSocket, PrintWriter writer, BufferedReader reader, String retrFileName, boolean resume) throws IOException {
         writer.println("PASV");
         String response = reader.readLine();
         System.out.println("\033[32m" + response + "\033[0m");
 
         int passivePort = extractPassivePort(response);
-        try (Socket dataSocket = new Socket(controlSocket.getInetAddress(), passivePort);
-             InputStream dataIn = dataSocket.getInputStream()) { // Luồng đầu vào từ datasocket
+        try (Socket dataSocket = openDataSocket(controlSocket, passivePort);
+             InputStream dataIn = dataInput(dataSocket)) { // Luồng đầu vào từ datasocket
             String remoteFile = retrFileName;
+            File localFile = new File(remoteFile);
+            long offset = resume && localFile.exists() ? localFile.length() : 0;
+            if (offset > 0) {
+                writer.println("REST " + offset);
+                response = readResponse(reader);
+                System.out.println("\033[32m" + response + "\033[0m");
+                if (!response.startsWith("350")) {
+                    return;
+                }
+            }
             writer.println("RETR " + remoteFile);
 
             response = readResponse(reader);
             System.out.println("\033[32m" + response + "\033[0m");
+            if (!response.startsWith("150")) {
+                return;
+            }
 
-            FileOutputStream fileOut = new FileOutputStream(remoteFile);// Luồng đầu ra ghi dữ liệu
+            FileOutputStream fileOut = new FileOutputStream(localFile, offset > 0);// Luồng đầu ra ghi dữ liệu, nối tiếp khi resume
+            long start = System.nanoTime();
+            long received = 0;
             byte[] buffer = new byte[BUFFER_SIZE];
             int bytesRead;
             while ((bytesRead = dataIn.read(buffer)) != -1) {
                 fileOut.write(buffer, 0, bytesRead);
+                received += bytesRead;
             }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("\033[32m%d bytes in %.2f s: %.1f MB/s\033[0m%n", received, seconds, received / seconds / (1 << 20));
             fileOut.close();
             dataIn.close();
             response = reader.readLine();
@@ -56,23 +171,42 @@ public class CommandHandler {
 
     // Lệnh STOR: Tải file lên server
     public static void storeFile(Socket controlSocket, PrintWriter writer, BufferedReader reader, String storFileName) throws IOException {
+        storeFile(controlSocket, writer, reader, storFileName, false);
+    }
+
+    // Lệnh SIZE + REST + STOR: Tải tiếp phần còn thiếu của file lên server
+    public static void storeFile(Socket controlSocket, PrintWriter writer, BufferedReader reader, String storFileName, boolean resume) throws IOException {
+        long offset = 0;
+        if (resume) {
+            offset = remoteSize(writer, reader, new File(storFileName).getName());
+        }
+
         writer.println("PASV");
         String response = reader.readLine();
         System.out.println("\033[32m" + response + "\033[0m");
 
         int passivePort = extractPassivePort(response);
-        try (Socket dataSocket = new Socket(controlSocket.getInetAddress(), passivePort);
-             OutputStream dataOut = dataSocket.getOutputStream()) { // Luồng đầu ra
+        try (Socket dataSocket = openDataSocket(controlSocket, passivePort);
+             OutputStream dataOut = dataOutput(dataSocket)) { // Luồng đầu ra
             String localFile = storFileName;
             File file = new File(localFile);
             if (!file.exists() || !file.canRead()) {
                 System.out.println("\033[31m550 File unavailable.\033[0m");
             } else {
+                if (offset > 0) {
+                    writer.println("REST " + offset);
+                    response = readResponse(reader);
+                    System.out.println("\033[32m" + response + "\033[0m");
+                    if (!response.startsWith("350")) {
+                        return;
+                    }
+                }
                 writer.println("STOR " + file.getName());
                 response = readResponse(reader);
                 System.out.println("\033[32m" + response + "\033[0m");
 
                 FileInputStream fileIn = new FileInputStream(file); // Luồng đầu vào đọc dữ liệu
+                fileIn.getChannel().position(offset); // Bỏ qua phần server đã có
                 byte[] buffer = new byte[BUFFER_SIZE]; // mảng 1kB
                 int bytesRead;
                 while ((bytesRead = fileIn.read(buffer)) != -1) {
@@ -86,7 +220,18 @@ public class CommandHandler {
         }
     }
 
-    private static int extractPassivePort(String response) {
+    // Lệnh SIZE: Kích thước file trên server, 0 nếu chưa có
+    static long remoteSize(PrintWriter writer, BufferedReader reader, String fileName) throws IOException {
+        writer.println("SIZE " + fileName);
+        String response = readResponse(reader);
+        System.out.println("\033[32m" + response + "\033[0m");
+        if (!response.startsWith("213")) {
+            return 0;
+        }
+        return Long.parseLong(response.substring(4).trim());
+    }
+
+    static int extractPassivePort(String response) {
         int start = response.indexOf('(');
         int end = response.indexOf(')');
         if (start == -1 || end == -1) return -1;
@@ -151,7 +296,7 @@ public class CommandHandler {
         }
     }
 
-    private static String readResponse(BufferedReader reader) throws IOException {
+    static String readResponse(BufferedReader reader) throws IOException {
         StringBuilder response = new StringBuilder();
         String line;
         while ((line = reader.readLine()) != null) {
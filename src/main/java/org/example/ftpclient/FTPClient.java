@@ -9,6 +9,10 @@ public class FTPClient {
     private static Socket controlSocket;
     private static BufferedReader reader;
     private static PrintWriter writer;
+    private static String hostname;
+    private static int port;
+    private static String username;
+    private static String password;
 
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
@@ -17,11 +21,11 @@ public class FTPClient {
                 try{
                     // Nhập hostname từ bàn phím
                     System.out.print("Enter hostname: ");
-                    String hostname = scanner.nextLine();
+                    hostname = scanner.nextLine();
 
                     // Nhập port từ bàn phím
                     System.out.print("Enter port: ");
-                    int port = Integer.parseInt(scanner.nextLine());
+                    port = Integer.parseInt(scanner.nextLine());
 
                     // Hiển thị thông tin đã nhập
                     System.out.println("Connecting to hostname: " + hostname);
@@ -41,6 +45,20 @@ public class FTPClient {
                     System.out.println("\033[31mCould not connect to the specified host and port. Please try again.\033[0m");
                 }
             }
+            // Hỏi có dùng FTPS (AUTH TLS) không, phải làm trước khi đăng nhập
+            BufferedReader tlsInput = new BufferedReader(new InputStreamReader(System.in));
+            System.out.print("Use TLS (AUTH TLS)? (y/N): ");
+            String useTls = tlsInput.readLine();
+            if (useTls != null && useTls.trim().equalsIgnoreCase("y")) {
+                Socket secureSocket = CommandHandler.startTls(controlSocket, writer, reader);
+                if (secureSocket != null) {
+                    controlSocket = secureSocket;
+                    reader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream()));
+                    writer = new PrintWriter(controlSocket.getOutputStream(), true);
+                    CommandHandler.protectData(writer, reader);
+                }
+            }
+
             // Login
             authenticate();
 
@@ -58,14 +76,22 @@ public class FTPClient {
                 System.out.println("\033[34m8. Make Directory (MKD)\033[0m");
                 System.out.println("\033[36m9. Change to Parent Director (CDUP)\033[0m");
                 System.out.println("\033[33m10. Quit (QUIT)\033[0m");
+                System.out.println("\033[36m11. Resume retrieve (REST + RETR)\033[0m");
+                System.out.println("\033[34m12. Resume store (REST + STOR)\033[0m");
+                System.out.println("\033[36m13. Segmented retrieve (parallel REST + RETR)\033[0m");
+                System.out.println("\033[33m14. List names (NLST)\033[0m");
+                System.out.println("\033[34m15. Toggle compression (MODE Z), now " + (CommandHandler.isCompressed() ? "on" : "off") + "\033[0m");
+                System.out.println("\033[36m16. Mirror directory tree (parallel sync)\033[0m");
                 System.out.println("==========================");
-                System.out.print("Select an option (1-10): ");
+                System.out.print("Select an option (1-16): ");
                 String choice = consoleInput.readLine();
 
                 switch (choice) {
                     case "1":
                         // LIST command
-                        CommandHandler.listRemote(controlSocket, writer, reader);
+                        System.out.print("Enter a path or pattern (blank for current directory): ");
+                        String listPattern = consoleInput.readLine();
+                        CommandHandler.listRemote(controlSocket, writer, reader, "LIST", listPattern);
                         break;
 
                     case "2":
@@ -80,6 +106,8 @@ public class FTPClient {
                         System.out.print("Enter the name of the file to store: ");
                         String storFileName = consoleInput.readLine();
                         CommandHandler.storeFile(controlSocket, writer, reader, storFileName);
+                        break;
+
                     case "4":
                         // CWD command
                         System.out.print("Enter the directory to change to: ");
@@ -125,6 +153,63 @@ public class FTPClient {
 //                        System.out.println("Goodbye!");
                         return;
 
+                    case "11":
+                        // REST + RETR command
+                        System.out.print("Enter the name of the file to resume retrieving: ");
+                        String resumeRetrFileName = consoleInput.readLine();
+                        CommandHandler.retrieveFile(controlSocket, writer, reader, resumeRetrFileName, true);
+                        break;
+
+                    case "12":
+                        // REST + STOR command
+                        System.out.print("Enter the name of the file to resume storing: ");
+                        String resumeStorFileName = consoleInput.readLine();
+                        CommandHandler.storeFile(controlSocket, writer, reader, resumeStorFileName, true);
+                        break;
+
+                    case "13":
+                        // Segmented RETR over several control sessions
+                        System.out.print("Enter the name of the file to retrieve: ");
+                        String segmentedFileName = consoleInput.readLine();
+                        System.out.print("Enter the number of segments: ");
+                        int segments = Integer.parseInt(consoleInput.readLine().trim());
+                        SegmentedDownloader downloader = new SegmentedDownloader(hostname, port, username, password);
+                        if (!downloader.download(segmentedFileName, segments)) {
+                            System.out.println("\033[31mDownload incomplete, use option 11 to resume.\033[0m");
+                        }
+                        break;
+
+                    case "14":
+                        // NLST command
+                        System.out.print("Enter a path or pattern (blank for current directory): ");
+                        String nameListPattern = consoleInput.readLine();
+                        CommandHandler.listRemote(controlSocket, writer, reader, "NLST", nameListPattern);
+                        break;
+
+                    case "15":
+                        // MODE Z / MODE S command
+                        CommandHandler.setCompression(writer, reader, !CommandHandler.isCompressed());
+                        break;
+
+                    case "16":
+                        // Đồng bộ cả cây thư mục, bỏ qua file không đổi
+                        System.out.print("Download from server or upload to it? (d/u): ");
+                        boolean upload = consoleInput.readLine().trim().equalsIgnoreCase("u");
+                        System.out.print("Enter the remote directory: ");
+                        String remoteDir = consoleInput.readLine().trim();
+                        System.out.print("Enter the local directory: ");
+                        java.nio.file.Path localDir = java.nio.file.Path.of(consoleInput.readLine().trim());
+                        System.out.print("Enter the number of parallel workers: ");
+                        int workers = Integer.parseInt(consoleInput.readLine().trim());
+                        try (FtpClientPool pool = new FtpClientPool(hostname, port, username, password, workers)) {
+                            if (upload) {
+                                MirrorSync.upload(pool, workers, localDir, remoteDir);
+                            } else {
+                                MirrorSync.download(pool, workers, remoteDir, localDir);
+                            }
+                        }
+                        break;
+
 
                     default:
                         System.out.println("Invalid option. Please try again.");
@@ -146,7 +231,7 @@ public class FTPClient {
         BufferedReader consoleInput = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("Enter username: ");
-            String username = consoleInput.readLine();
+            username = consoleInput.readLine();
             writer.println("USER " + username);
             String response = readResponse();
 
@@ -157,7 +242,7 @@ public class FTPClient {
                 while (true) {
                     System.out.println("\033[32m" + response + "\033[0m");
                     System.out.print("Enter password: ");
-                    String password = consoleInput.readLine();
+                    password = consoleInput.readLine();
                     writer.println("PASS " + password);
                     response = readResponse();
 
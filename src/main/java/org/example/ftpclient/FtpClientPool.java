@@ -0,0 +1,228 @@
+package org.example.ftpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe client backed by up to {@code maxConnections} logged-in
+ * control connections to one server, so an operation costs its own round
+ * trips only, not a TCP connect plus USER/PASS/TYPE.
+ * <p>
+ * Connections are handed out most recently used first. One background
+ * thread sends NOOP on any connection that has sat idle for
+ * {@code keepAliveMillis}, so NATs and firewalls do not drop it and a dead
+ * server is found before a caller gets the connection. A connection that
+ * fails other than with an error reply is closed instead of returned.
+ */
+public class FtpClientPool implements Closeable {
+    private final String hostname;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final int timeoutMillis;
+    private final long keepAliveNanos;
+    private final Semaphore permits;
+    // Kết nối rảnh, đầu hàng đợi là kết nối vừa dùng xong; khoá bằng chính nó
+    private final Deque<FtpConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService keepAlive;
+    private final AtomicLong opened = new AtomicLong();
+    private volatile boolean closed;
+
+    public FtpClientPool(String hostname, int port, String username, String password, int maxConnections) {
+        this(hostname, port, username, password, maxConnections, 60_000, FtpConnection.DEFAULT_TIMEOUT_MS);
+    }
+
+    public FtpClientPool(String hostname, int port, String username, String password, int maxConnections,
+                         long keepAliveMillis, int timeoutMillis) {
+        this.hostname = hostname;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.timeoutMillis = timeoutMillis;
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        this.permits = new Semaphore(maxConnections, true);
+        this.keepAlive = Executors.newSingleThreadScheduledExecutor(
+                r -> Thread.ofPlatform().name("ftp-pool-keepalive").daemon().unstarted(r));
+        long period = Math.max(keepAliveMillis / 2, 1);
+        keepAlive.scheduleWithFixedDelay(this::keepIdleAlive, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs {@code call} on a pooled connection, opening one if none is idle
+     * and fewer than {@code maxConnections} are out; otherwise waits.
+     */
+    public <T> T execute(FtpCall<T> call) throws IOException {
+        FtpConnection connection = borrow();
+        try {
+            return call.apply(connection);
+        } finally {
+            release(connection);
+        }
+    }
+
+    public List<FtpFile> list(String path) throws IOException {
+        return execute(connection -> connection.list(path));
+    }
+
+    public List<String> nameList(String pathOrPattern) throws IOException {
+        return execute(connection -> connection.nameList(pathOrPattern));
+    }
+
+    public long retrieve(String path, OutputStream out) throws IOException {
+        return execute(connection -> connection.retrieve(path, out));
+    }
+
+    public byte[] retrieve(String path) throws IOException {
+        return execute(connection -> connection.retrieve(path));
+    }
+
+    public long store(String path, InputStream in) throws IOException {
+        return execute(connection -> connection.store(path, in));
+    }
+
+    public long store(String path, byte[] data) throws IOException {
+        return execute(connection -> connection.store(path, data));
+    }
+
+    public long size(String path) throws IOException {
+        return execute(connection -> connection.size(path));
+    }
+
+    public void delete(String path) throws IOException {
+        execute(connection -> {
+            connection.delete(path);
+            return null;
+        });
+    }
+
+    /**
+     * Takes a connection for exclusive use; it must be given back with
+     * {@link #release(FtpConnection)}. Its working directory is whatever
+     * the previous user left, so use absolute paths or CWD first.
+     */
+    public FtpConnection borrow() throws IOException {
+        if (closed) {
+            throw new IOException("Pool is closed");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        }
+        try {
+            while (true) {
+                FtpConnection connection;
+                synchronized (idle) {
+                    connection = idle.pollFirst();
+                }
+                if (connection == null) {
+                    FtpConnection opened = FtpConnection.open(hostname, port, username, password, timeoutMillis);
+                    this.opened.incrementAndGet();
+                    return opened;
+                }
+                if (connection.isUsable()) {
+                    return connection;
+                }
+                connection.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(FtpConnection connection) {
+        try {
+            if (closed || !connection.isUsable()) {
+                closeQuietly(connection);
+                return;
+            }
+            synchronized (idle) {
+                idle.addFirst(connection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Connections opened over the pool's lifetime; stays at the pool size while reuse works
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Closes the idle connections; ones still borrowed are closed as they
+     * come back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        keepAlive.shutdownNow();
+        List<FtpConnection> connections;
+        synchronized (idle) {
+            connections = new ArrayList<>(idle);
+            idle.clear();
+        }
+        connections.forEach(FtpClientPool::closeQuietly);
+    }
+
+    // Lấy các kết nối rảnh quá lâu ra khỏi hàng đợi, NOOP bên ngoài khoá rồi trả lại cuối hàng
+    private void keepIdleAlive() {
+        long now = System.nanoTime();
+        List<FtpConnection> stale = new ArrayList<>();
+        synchronized (idle) {
+            idle.removeIf(connection -> {
+                if (now - connection.getLastUsedNanos() >= keepAliveNanos) {
+                    stale.add(connection);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (FtpConnection connection : stale) {
+            try {
+                connection.noop();
+                synchronized (idle) {
+                    if (!closed) {
+                        idle.addLast(connection);
+                        continue;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("FTP pool: dropping connection to " + hostname + ":" + port + ": " + e.getMessage());
+            }
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(FtpConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Kết nối đã hỏng, không còn gì để làm
+        }
+    }
+
+    public interface FtpCall<T> {
+        T apply(FtpConnection connection) throws IOException;
+    }
+}
@@ -0,0 +1,296 @@
+package org.example.ftpclient;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One logged-in control connection, for programs that embed the client.
+ * Unlike {@link CommandHandler} nothing is printed and nothing is static:
+ * every call returns a typed result or throws.
+ * <p>
+ * A reply with an unexpected code throws {@link FtpException} and leaves
+ * the connection usable. Any other failure, e.g. a dropped socket or a
+ * timeout halfway through a reply, marks it broken ({@link #isUsable()}),
+ * because the next reply read could belong to the failed command.
+ * <p>
+ * Calls are synchronized, so a connection can be shared, but commands on
+ * one connection always run one at a time; use {@link FtpClientPool} for
+ * parallel work.
+ */
+public class FtpConnection implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_TIMEOUT_MS = 30_000;
+
+    private final Socket controlSocket;
+    private final BufferedReader reader;
+    private final Writer writer;
+    private final int timeoutMillis;
+    private volatile boolean broken;
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    private FtpConnection(Socket controlSocket, int timeoutMillis) throws IOException {
+        this.controlSocket = controlSocket;
+        this.timeoutMillis = timeoutMillis;
+        this.reader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream(), StandardCharsets.UTF_8));
+        this.writer = new BufferedWriter(new OutputStreamWriter(controlSocket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    public static FtpConnection open(String hostname, int port, String username, String password) throws IOException {
+        return open(hostname, port, username, password, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Connects, logs in and switches to binary mode.
+     *
+     * @param timeoutMillis connect timeout, and the longest wait for any reply or data
+     */
+    public static FtpConnection open(String hostname, int port, String username, String password,
+                                     int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(hostname, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            FtpConnection connection = new FtpConnection(socket, timeoutMillis);
+            connection.expect("CONNECT", connection.readReply(), 220);
+            connection.execute("USER " + username, 331);
+            connection.execute("PASS " + password, 230);
+            connection.execute("TYPE I", 200);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one command and returns whatever the server answered, without
+     * checking the code.
+     */
+    public synchronized FtpReply sendCommand(String line) throws IOException {
+        try {
+            writeLine(line);
+            return readReply();
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one command and returns the reply if its code is one of
+     * {@code expectedCodes}; throws {@link FtpException} otherwise.
+     */
+    public synchronized FtpReply execute(String line, int... expectedCodes) throws IOException {
+        return expect(commandName(line), sendCommand(line), expectedCodes);
+    }
+
+    // Lệnh NOOP: giữ kết nối sống qua NAT/firewall và kiểm tra server còn trả lời
+    public void noop() throws IOException {
+        execute("NOOP", 200);
+    }
+
+    public String pwd() throws IOException {
+        String text = execute("PWD", 257).message();
+        int start = text.indexOf('"');
+        int end = text.lastIndexOf('"');
+        return start >= 0 && end > start ? text.substring(start + 1, end) : text;
+    }
+
+    public void cwd(String path) throws IOException {
+        execute("CWD " + path, 200, 250);
+    }
+
+    public void mkd(String path) throws IOException {
+        execute("MKD " + path, 200, 257);
+    }
+
+    public void rmd(String path) throws IOException {
+        execute("RMD " + path, 200, 250);
+    }
+
+    public void delete(String path) throws IOException {
+        execute("DELE " + path, 200, 250);
+    }
+
+    public long size(String path) throws IOException {
+        return Long.parseLong(execute("SIZE " + path, 213).message().trim());
+    }
+
+    // Lệnh MDTM: thời điểm sửa file trên server, theo giờ UTC
+    public Instant mdtm(String path) throws IOException {
+        return FtpFile.parseTime(execute("MDTM " + path, 213).message().trim());
+    }
+
+    // Lệnh MLSD: danh sách có kiểu, kích thước và thời điểm sửa của từng mục
+    public List<FtpFile> list(String path) throws IOException {
+        List<FtpFile> files = new ArrayList<>();
+        for (String line : readLines(path == null || path.isEmpty() ? "MLSD" : "MLSD " + path)) {
+            FtpFile file = FtpFile.parse(line);
+            if (!file.name().equals(".") && !file.name().equals("..")) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    // Lệnh NLST: chỉ tên, server hỗ trợ cả mẫu glob
+    public List<String> nameList(String pathOrPattern) throws IOException {
+        return readLines(pathOrPattern == null || pathOrPattern.isEmpty() ? "NLST" : "NLST " + pathOrPattern);
+    }
+
+    /**
+     * RETR into {@code out}, which is not closed.
+     *
+     * @return number of bytes received
+     */
+    public long retrieve(String path, OutputStream out) throws IOException {
+        return transfer("RETR " + path, dataSocket -> {
+            InputStream in = dataSocket.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long received = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                received += n;
+            }
+            return received;
+        });
+    }
+
+    public byte[] retrieve(String path) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        retrieve(path, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * STOR of everything left in {@code in}, which is not closed.
+     *
+     * @return number of bytes sent
+     */
+    public long store(String path, InputStream in) throws IOException {
+        return transfer("STOR " + path, dataSocket -> {
+            OutputStream out = dataSocket.getOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long sent = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                sent += n;
+            }
+            out.flush();
+            return sent;
+        });
+    }
+
+    public long store(String path, byte[] data) throws IOException {
+        return store(path, new ByteArrayInputStream(data));
+    }
+
+    // False once the connection has failed in a way that leaves the control channel out of step
+    public boolean isUsable() {
+        return !broken && !controlSocket.isClosed();
+    }
+
+    // When the last command finished, from System.nanoTime()
+    public long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    /**
+     * Sends QUIT if the connection is still usable, then closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (isUsable()) {
+                writeLine("QUIT");
+                readReply();
+            }
+        } catch (IOException e) {
+            // Đang đóng, server không trả lời QUIT cũng không sao
+        } finally {
+            broken = true;
+            controlSocket.close();
+        }
+    }
+
+    private List<String> readLines(String command) throws IOException {
+        return transfer(command, dataSocket -> {
+            BufferedReader dataReader = new BufferedReader(
+                    new InputStreamReader(dataSocket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = dataReader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        });
+    }
+
+    // PASV, mở kết nối data, gửi lệnh, chờ 1xx, truyền dữ liệu rồi chờ 226
+    private synchronized <T> T transfer(String command, DataHandler<T> handler) throws IOException {
+        FtpReply pasv = execute("PASV", 227);
+        int passivePort = CommandHandler.extractPassivePort(pasv.text());
+        try {
+            T result;
+            try (Socket dataSocket = new Socket()) {
+                dataSocket.connect(new InetSocketAddress(controlSocket.getInetAddress(), passivePort), timeoutMillis);
+                dataSocket.setSoTimeout(timeoutMillis);
+                writeLine(command);
+                // Lỗi ở đây (vd: 550) thì chưa có gì được truyền, kết nối vẫn dùng tiếp được
+                expect(commandName(command), readReply(), 125, 150);
+                result = handler.transfer(dataSocket);
+            }
+            expect(commandName(command), readReply(), 226, 250);
+            return result;
+        } catch (FtpException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.write("\r\n");
+        writer.flush();
+    }
+
+    private FtpReply readReply() throws IOException {
+        String response = CommandHandler.readResponse(reader);
+        if (response.isEmpty()) {
+            throw new EOFException("Connection closed by server");
+        }
+        lastUsedNanos = System.nanoTime();
+        return FtpReply.parse(response);
+    }
+
+    private FtpReply expect(String command, FtpReply reply, int... expectedCodes) throws FtpException {
+        for (int code : expectedCodes) {
+            if (reply.code() == code) {
+                return reply;
+            }
+        }
+        throw new FtpException(command, reply);
+    }
+
+    // Chỉ tên lệnh, để mật khẩu trong PASS không lọt vào thông báo lỗi
+    private static String commandName(String line) {
+        int space = line.indexOf(' ');
+        return space == -1 ? line : line.substring(0, space);
+    }
+
+    private interface DataHandler<T> {
+        T transfer(Socket dataSocket) throws IOException;
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.ftpclient;
+
+import java.io.IOException;
+
+/**
+ * The server answered with a reply other than the one expected. The reply
+ * was read in full, so the connection can still be used.
+ */
+public class FtpException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final FtpReply reply;
+
+    public FtpException(String command, FtpReply reply) {
+        super(command + ": " + reply.text());
+        this.reply = reply;
+    }
+
+    public FtpReply getReply() {
+        return reply;
+    }
+
+    public int getCode() {
+        return reply.code();
+    }
+}
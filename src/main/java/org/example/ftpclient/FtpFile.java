@@ -0,0 +1,51 @@
+package org.example.ftpclient;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * One entry of an MLSD listing. {@code size} is -1 for directories, and
+ * {@code modified} is null if the server did not send the fact.
+ */
+public record FtpFile(String name, boolean directory, long size, Instant modified) {
+    private static final DateTimeFormatter MODIFY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    // Đọc một dòng fact RFC 3659, vd: "type=file;size=12;modify=20240101120000;perm=rw; name"
+    static FtpFile parse(String line) {
+        int space = line.indexOf(' ');
+        String name = line.substring(space + 1);
+        boolean directory = false;
+        long size = -1;
+        Instant modified = null;
+        for (String fact : line.substring(0, space).split(";")) {
+            int eq = fact.indexOf('=');
+            if (eq == -1) {
+                continue;
+            }
+            String value = fact.substring(eq + 1);
+            switch (fact.substring(0, eq).toLowerCase()) {
+                case "type":
+                    directory = value.equalsIgnoreCase("dir") || value.equalsIgnoreCase("cdir")
+                            || value.equalsIgnoreCase("pdir");
+                    break;
+                case "size":
+                    size = Long.parseLong(value);
+                    break;
+                case "modify":
+                    // Có thể có phần lẻ giây (.sss), bỏ qua
+                    modified = parseTime(value.length() > 14 ? value.substring(0, 14) : value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new FtpFile(name, directory, size, modified);
+    }
+
+    // Thời điểm UTC dạng YYYYMMDDHHMMSS, dùng cho MLSD và MDTM
+    static Instant parseTime(String value) {
+        return LocalDateTime.parse(value, MODIFY_FORMAT).toInstant(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,38 @@
+package org.example.ftpclient;
+
+import java.io.Serializable;
+
+/**
+ * A reply from the server: the three-digit code and the full text, every
+ * line of a multi-line reply included.
+ */
+public record FtpReply(int code, String text) implements Serializable {
+
+    // Tách mã trả lời từ dòng cuối, dòng cuối luôn có dạng "ddd text"
+    static FtpReply parse(String response) {
+        String trimmed = response.trim();
+        int lastLine = trimmed.lastIndexOf('\n') + 1;
+        return new FtpReply(Integer.parseInt(trimmed.substring(lastLine, lastLine + 3)), trimmed);
+    }
+
+    // 1xx: the server has started and another reply will follow
+    public boolean isPreliminary() {
+        return code >= 100 && code < 200;
+    }
+
+    // 2xx
+    public boolean isSuccess() {
+        return code >= 200 && code < 300;
+    }
+
+    // The text of the last line, without the code
+    public String message() {
+        int lastLine = text.lastIndexOf('\n') + 1;
+        return text.length() > lastLine + 4 ? text.substring(lastLine + 4) : "";
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,520 @@
+package org.example.ftpclient;
+
+import org.example.ftpserver.Account;
+import org.example.ftpserver.AccountStore;
+import org.example.ftpserver.FTPServer;
+import org.example.ftpserver.PasswordHasher;
+import org.example.ftpserver.SessionExecutor;
+import org.example.ftpserver.Storage;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+// Sinh tải không cần bàn phím: mỗi phiên FTP chạy trên một virtual thread theo một kịch bản,
+// đo độ trễ từng lệnh rồi in thông lượng và các phân vị khi hết thời gian
+public class LoadGenerator {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SO_TIMEOUT_MS = 30_000;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    // Nội dung mọi lần STOR, chỉ đọc nên các phiên dùng chung được
+    private static final byte[] PAYLOAD = new byte[BUFFER_SIZE];
+
+    static {
+        new Random(42).nextBytes(PAYLOAD);
+    }
+
+    public enum Scenario {
+        // Kết nối, USER, PASS, QUIT lặp lại liên tục
+        LOGIN,
+        // Đăng nhập một lần rồi PASV + LIST liên tục
+        LIST,
+        // Đăng nhập một lần rồi xen kẽ RETR/STOR với kích thước ngẫu nhiên trong danh sách
+        MIXED
+    }
+
+    private final String hostname;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final Scenario scenario;
+    private final int sessions;
+    private final long durationMs;
+    private final long rampMs;
+    private final long thinkMs;
+    private final long[] fileSizes;
+    private final int retrPercent;
+    private final Results results = new Results();
+
+    public LoadGenerator(String hostname, int port, String username, String password, Scenario scenario,
+                         int sessions, long durationMs, long rampMs, long thinkMs, long[] fileSizes, int retrPercent) {
+        this.hostname = hostname;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.scenario = scenario;
+        this.sessions = sessions;
+        this.durationMs = durationMs;
+        this.rampMs = rampMs;
+        this.thinkMs = thinkMs;
+        this.fileSizes = fileSizes;
+        this.retrPercent = retrPercent;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options == null) {
+            printUsage();
+            return;
+        }
+
+        int sessions = Integer.parseInt(options.getOrDefault("sessions", "100"));
+        boolean embedded = options.containsKey("embedded");
+        String hostname = options.getOrDefault("host", "127.0.0.1");
+        int port = Integer.parseInt(options.getOrDefault("port", "1234"));
+        String username = options.getOrDefault("user", embedded ? "load" : null);
+        String password = options.getOrDefault("password", embedded ? "load" : null);
+        if (username == null || password == null) {
+            System.out.println("\033[31m--user and --password are required unless --embedded is given.\033[0m");
+            printUsage();
+            return;
+        }
+
+        EmbeddedServer server = null;
+        if (embedded) {
+            server = new EmbeddedServer(username, password, sessions,
+                    Integer.parseInt(options.getOrDefault("listFiles", "100")),
+                    options.getOrDefault("storage", "local"));
+            hostname = "127.0.0.1";
+            port = server.getPort();
+        }
+
+        try {
+            LoadGenerator generator = new LoadGenerator(hostname, port, username, password,
+                    Scenario.valueOf(options.getOrDefault("scenario", "mixed").toUpperCase()),
+                    sessions,
+                    (long) (Double.parseDouble(options.getOrDefault("duration", "30")) * 1000),
+                    Long.parseLong(options.getOrDefault("rampMs", "0")),
+                    Long.parseLong(options.getOrDefault("thinkMs", "0")),
+                    parseSizes(options.getOrDefault("sizes", "64k,1m")),
+                    Integer.parseInt(options.getOrDefault("retrPercent", "50")));
+            generator.run();
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Starts every session, waits until the run is over and prints the report.
+     */
+    public void run() throws InterruptedException {
+        System.out.printf("\033[36m%s scenario against %s:%d, %d sessions for %.1f s\033[0m%n",
+                scenario, hostname, port, sessions, durationMs / 1000.0);
+        long start = System.nanoTime();
+        long deadline = start + durationMs * 1_000_000;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < sessions; i++) {
+                int id = i;
+                // Rải đều thời điểm bắt đầu trong rampMs; 0 nghĩa là tất cả cùng lúc
+                long delayNanos = sessions > 1 ? rampMs * 1_000_000 * i / (sessions - 1) : 0;
+                executor.submit(() -> runSession(id, start + delayNanos, deadline));
+            }
+        }
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private void runSession(int id, long startAt, long deadline) {
+        Results local = new Results();
+        try {
+            pause(startAt - System.nanoTime());
+            String fileName = "load-" + id + ".bin";
+            boolean stored = false;
+            while (System.nanoTime() < deadline) {
+                // Lỗi giữa chừng thì bỏ kết nối và mở kết nối mới, lỗi đã được ghi vào local
+                try (Connection connection = new Connection(local)) {
+                    connection.login();
+                    if (scenario == Scenario.LOGIN) {
+                        connection.quit();
+                        think();
+                        continue;
+                    }
+                    if (scenario == Scenario.MIXED) {
+                        connection.command("TYPE", "TYPE I", "200");
+                    }
+                    while (System.nanoTime() < deadline) {
+                        if (scenario == Scenario.LIST) {
+                            connection.list();
+                        } else if (stored && ThreadLocalRandom.current().nextInt(100) < retrPercent) {
+                            connection.retrieve(fileName);
+                        } else {
+                            connection.store(fileName, fileSizes[ThreadLocalRandom.current().nextInt(fileSizes.length)]);
+                            stored = true;
+                        }
+                        think();
+                    }
+                    connection.quit();
+                } catch (IOException e) {
+                    pause(100_000_000L);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            results.merge(local);
+        }
+    }
+
+    private void think() throws InterruptedException {
+        if (thinkMs > 0) {
+            Thread.sleep(thinkMs);
+        }
+    }
+
+    private static void pause(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        }
+    }
+
+    private void report(double seconds) {
+        System.out.printf("\033[32m%-6s %9s %7s %9s %9s %9s %9s %9s %9s\033[0m%n",
+                "CMD", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long total = 0;
+        for (Map.Entry<String, Samples> e : results.latencies.entrySet()) {
+            Samples samples = e.getValue();
+            samples.sort();
+            total += samples.size;
+            System.out.printf("%-6s %9d %7d %9.1f", e.getKey(), samples.size,
+                    results.errors.getOrDefault(e.getKey(), 0L), samples.size / seconds);
+            for (double percentile : PERCENTILES) {
+                System.out.printf(" %9.2f", samples.percentile(percentile) / 1e6);
+            }
+            System.out.printf(" %9.2f%n", samples.percentile(1.0) / 1e6);
+        }
+        // Lệnh chỉ có lỗi, chưa lần nào thành công
+        for (Map.Entry<String, Long> e : results.errors.entrySet()) {
+            if (!results.latencies.containsKey(e.getKey())) {
+                System.out.printf("%-6s %9d %7d%n", e.getKey(), 0, e.getValue());
+            }
+        }
+        System.out.printf("\033[36m%d commands in %.1f s: %.1f commands/s\033[0m%n", total, seconds, total / seconds);
+        for (Map.Entry<String, Long> e : results.bytes.entrySet()) {
+            System.out.printf("\033[36m%s: %d bytes, %.1f MB/s\033[0m%n",
+                    e.getKey(), e.getValue(), e.getValue() / seconds / (1 << 20));
+        }
+        for (Map.Entry<String, String> e : results.firstErrors.entrySet()) {
+            System.out.println("\033[31mFirst " + e.getKey() + " error: " + e.getValue() + "\033[0m");
+        }
+    }
+
+    // Một kết nối điều khiển; mọi lệnh được đo từ lúc gửi tới khi nhận mã trả lời cuối cùng
+    private final class Connection implements Closeable {
+        private final Results local;
+        private final Socket controlSocket;
+        private final BufferedReader reader;
+        private final PrintWriter writer;
+
+        Connection(Results local) throws IOException {
+            this.local = local;
+            long start = System.nanoTime();
+            try {
+                controlSocket = new Socket(hostname, port);
+                controlSocket.setSoTimeout(SO_TIMEOUT_MS);
+                controlSocket.setTcpNoDelay(true);
+                reader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream()));
+                writer = new PrintWriter(controlSocket.getOutputStream(), true);
+                expect("CONN", CommandHandler.readResponse(reader), "220");
+            } catch (IOException e) {
+                local.error("CONN", e);
+                throw e;
+            }
+            local.record("CONN", System.nanoTime() - start);
+        }
+
+        void login() throws IOException {
+            command("USER", "USER " + username, "331");
+            command("PASS", "PASS " + password, "230");
+        }
+
+        void quit() throws IOException {
+            command("QUIT", "QUIT", "221");
+        }
+
+        String command(String name, String line, String expected) throws IOException {
+            long start = System.nanoTime();
+            String response;
+            try {
+                writer.println(line);
+                response = expect(name, CommandHandler.readResponse(reader), expected);
+            } catch (IOException e) {
+                local.error(name, e);
+                throw e;
+            }
+            local.record(name, System.nanoTime() - start);
+            return response;
+        }
+
+        void list() throws IOException {
+            transfer("LIST", "LIST", dataSocket -> drain(dataSocket));
+        }
+
+        void retrieve(String fileName) throws IOException {
+            transfer("RETR", "RETR " + fileName, dataSocket -> drain(dataSocket));
+        }
+
+        void store(String fileName, long size) throws IOException {
+            transfer("STOR", "STOR " + fileName, dataSocket -> {
+                try (OutputStream out = dataSocket.getOutputStream()) {
+                    long remaining = size;
+                    while (remaining > 0) {
+                        int n = (int) Math.min(remaining, PAYLOAD.length);
+                        out.write(PAYLOAD, 0, n);
+                        remaining -= n;
+                    }
+                }
+                return size;
+            });
+        }
+
+        // PASV, lệnh, truyền dữ liệu rồi chờ 226; độ trễ tính cho cả lần truyền
+        private void transfer(String name, String line, DataHandler handler) throws IOException {
+            int passivePort = CommandHandler.extractPassivePort(command("PASV", "PASV", "227"));
+            long start = System.nanoTime();
+            long bytes;
+            try {
+                try (Socket dataSocket = CommandHandler.openDataSocket(controlSocket, passivePort)) {
+                    dataSocket.setSoTimeout(SO_TIMEOUT_MS);
+                    writer.println(line);
+                    expect(name, CommandHandler.readResponse(reader), "150");
+                    bytes = handler.transfer(dataSocket);
+                }
+                expect(name, CommandHandler.readResponse(reader), "226");
+            } catch (IOException e) {
+                local.error(name, e);
+                throw e;
+            }
+            local.record(name, System.nanoTime() - start);
+            local.addBytes(name, bytes);
+        }
+
+        private long drain(Socket dataSocket) throws IOException {
+            InputStream in = dataSocket.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long received = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                received += n;
+            }
+            return received;
+        }
+
+        private String expect(String name, String response, String code) throws IOException {
+            if (!response.startsWith(code)) {
+                throw new IOException(name + ": " + (response.isEmpty() ? "connection closed" : response.trim()));
+            }
+            return response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            controlSocket.close();
+        }
+    }
+
+    private interface DataHandler {
+        long transfer(Socket dataSocket) throws IOException;
+    }
+
+    // Kết quả của một phiên, hoặc của cả lần chạy sau khi gộp; mỗi phiên ghi vào bản riêng nên không phải khoá
+    private static final class Results {
+        private final Map<String, Samples> latencies = new TreeMap<>();
+        private final Map<String, Long> errors = new TreeMap<>();
+        private final Map<String, Long> bytes = new TreeMap<>();
+        // Lỗi đầu tiên của mỗi lệnh, để biết vì sao mà không phải in hàng nghìn dòng
+        private final Map<String, String> firstErrors = new TreeMap<>();
+
+        void record(String name, long nanos) {
+            latencies.computeIfAbsent(name, k -> new Samples()).add(nanos);
+        }
+
+        void error(String name, IOException cause) {
+            errors.merge(name, 1L, Long::sum);
+            firstErrors.putIfAbsent(name, String.valueOf(cause.getMessage()));
+        }
+
+        void addBytes(String name, long count) {
+            bytes.merge(name, count, Long::sum);
+        }
+
+        synchronized void merge(Results other) {
+            other.latencies.forEach((name, samples) -> latencies.computeIfAbsent(name, k -> new Samples()).addAll(samples));
+            other.errors.forEach((name, count) -> errors.merge(name, count, Long::sum));
+            other.bytes.forEach((name, count) -> bytes.merge(name, count, Long::sum));
+            other.firstErrors.forEach(firstErrors::putIfAbsent);
+        }
+    }
+
+    // Danh sách long tự giãn, giữ mọi mẫu để phân vị là chính xác
+    private static final class Samples {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(Samples other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, values.length * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        // Gọi sau sort()
+        long percentile(double quantile) {
+            if (size == 0) {
+                return 0;
+            }
+            return values[(int) Math.max(0, Math.ceil(quantile * size) - 1)];
+        }
+    }
+
+    /**
+     * The server, in this JVM, on a free port, with one account whose root
+     * is a fresh temporary directory holding {@code listFiles} small files,
+     * kept on disk or in memory. Session limits are raised to fit the load
+     * unless set with -D.
+     */
+    private static final class EmbeddedServer implements Closeable {
+        private final Path root;
+        private final Path accounts;
+        private final FTPServer server;
+
+        EmbeddedServer(String username, String password, int sessions, int listFiles, String storage)
+                throws IOException {
+            root = Files.createTempDirectory("ftp-load-root");
+            accounts = Files.createTempFile("ftp-load-accounts", ".txt");
+
+            // Phải đặt trước khi lớp nào của server được nạp, ServerConfig chỉ đọc một lần
+            defaultProperty("ftp.storage", storage);
+            defaultProperty("ftp.accounts", accounts.toString());
+            defaultProperty("ftp.digest.cacheFile", "");
+            defaultProperty("ftp.maxSessions", String.valueOf(sessions * 2));
+            defaultProperty("ftp.maxSessionsPerIp", String.valueOf(sessions * 2));
+            defaultProperty("ftp.maxSessionsPerUser", String.valueOf(sessions * 2));
+            Files.writeString(accounts, username + " " + PasswordHasher.hash(password) + " " + root.toAbsolutePath() + "\n");
+
+            // Ghi qua storage của server, để file nằm trong bộ nhớ khi --storage=memory
+            Storage files = Storage.forAccount(new Account(username, "", root.toAbsolutePath().toString()));
+            for (int i = 0; i < listFiles; i++) {
+                try (WritableByteChannel channel = files.openWrite("/file-" + i + ".txt", 0)) {
+                    channel.write(ByteBuffer.wrap(("file " + i + "\n").getBytes()));
+                }
+            }
+
+            server = new FTPServer(0, AccountStore.load("database.txt"), SessionExecutor.fromConfig());
+            Thread.ofPlatform().name("ftp-load-server").daemon().start(server::start);
+            for (int attempt = 0; server.getLocalPort() <= 0; attempt++) {
+                if (attempt == 500) {
+                    throw new IOException("Embedded server did not start");
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while starting the embedded server", e);
+                }
+            }
+        }
+
+        private static void defaultProperty(String key, String value) {
+            if (System.getProperty(key) == null) {
+                System.setProperty(key, value);
+            }
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.stop();
+            Files.deleteIfExists(accounts);
+            try (Stream<Path> paths = Files.walk(root)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    // --name=value, hoặc --name cho cờ; null nếu có tham số không hợp lệ hoặc --help
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.equals("--help")) {
+                return null;
+            }
+            int eq = arg.indexOf('=');
+            if (eq == -1) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    // Danh sách kích thước, vd: 4k,64k,1m
+    static long[] parseSizes(String list) {
+        String[] parts = list.split(",");
+        long[] sizes = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim().toLowerCase();
+            long unit = 1;
+            if (part.endsWith("k")) {
+                unit = 1024;
+            } else if (part.endsWith("m")) {
+                unit = 1024 * 1024;
+            } else if (part.endsWith("g")) {
+                unit = 1024 * 1024 * 1024;
+            }
+            if (unit > 1) {
+                part = part.substring(0, part.length() - 1);
+            }
+            sizes[i] = Long.parseLong(part) * unit;
+        }
+        return sizes;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: LoadGenerator [--embedded | --host=H --port=P] --user=U --password=P");
+        System.out.println("         [--scenario=login|list|mixed] [--sessions=100] [--duration=30]");
+        System.out.println("         [--rampMs=0] [--thinkMs=0] [--sizes=64k,1m] [--retrPercent=50] [--listFiles=100]");
+        System.out.println("         [--storage=local|memory]");
+        System.out.println("  --embedded      start the server in this JVM on a free port (user/password default to load/load)");
+        System.out.println("  --storage       embedded server's file storage; memory leaves the disk out of the numbers");
+        System.out.println("  --scenario      login: connect/USER/PASS/QUIT storm; list: PASV+LIST polling;");
+        System.out.println("                  mixed: RETR/STOR of the given sizes");
+        System.out.println("  --duration      seconds to run; --rampMs spreads session starts over that many ms");
+    }
+}
@@ -0,0 +1,282 @@
+package org.example.ftpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Mirrors a whole directory tree between the server and a local directory,
+ * downloading or uploading, with the listing of each directory and each
+ * file transfer run as separate tasks on a pool of workers that share one
+ * {@link FtpClientPool}.
+ * <p>
+ * Files that already match are skipped. A download matches when the local
+ * file has the remote size and modification time, which the mirror sets
+ * after each download. An upload matches when the remote file has the
+ * local size and is not older, since the server stamps uploads with the
+ * time they arrived. Sizes and times come from MLSD, one round trip per
+ * directory; a server without MLSD is asked with NLST, SIZE and MDTM.
+ * Re-running on an unchanged tree therefore transfers nothing.
+ */
+public class MirrorSync {
+    private final FtpClientPool pool;
+    private final ExecutorService workers;
+    // Tác vụ chưa xong; về 0 nghĩa là đã duyệt hết cây
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private final AtomicInteger directories = new AtomicInteger();
+    private final AtomicInteger transferred = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public record Result(int directories, int transferred, int skipped, int failed, long bytes) {
+    }
+
+    private MirrorSync(FtpClientPool pool, int workers) {
+        this.pool = pool;
+        this.workers = Executors.newFixedThreadPool(workers);
+    }
+
+    /**
+     * Makes {@code localDir} a copy of {@code remoteDir}. Local files that
+     * are not on the server are left alone.
+     */
+    public static Result download(FtpClientPool pool, int workers, String remoteDir, Path localDir) throws IOException {
+        MirrorSync mirror = new MirrorSync(pool, workers);
+        return mirror.run(() -> mirror.downloadDirectory(remoteDir, localDir));
+    }
+
+    /**
+     * Makes {@code remoteDir} a copy of {@code localDir}. Remote files that
+     * are not in the local tree are left alone.
+     */
+    public static Result upload(FtpClientPool pool, int workers, Path localDir, String remoteDir) throws IOException {
+        MirrorSync mirror = new MirrorSync(pool, workers);
+        return mirror.run(() -> mirror.uploadDirectory(localDir, remoteDir, true));
+    }
+
+    private Result run(Task root) throws IOException {
+        long start = System.nanoTime();
+        submit(root);
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while mirroring", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        Result result = new Result(directories.get(), transferred.get(), skipped.get(), failed.get(), bytes.get());
+        System.out.printf("\033[32m%d directories, %d files transferred (%d bytes), %d unchanged, %d failed in %.2f s\033[0m%n",
+                result.directories(), result.transferred(), result.bytes(), result.skipped(), result.failed(),
+                (System.nanoTime() - start) / 1e9);
+        return result;
+    }
+
+    private void submit(Task task) {
+        outstanding.incrementAndGet();
+        workers.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                System.out.println("\033[31m" + e.getMessage() + "\033[0m");
+            } finally {
+                if (outstanding.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            }
+        });
+    }
+
+    private void downloadDirectory(String remoteDir, Path localDir) throws IOException {
+        Files.createDirectories(localDir);
+        directories.incrementAndGet();
+        for (FtpFile entry : listRemote(remoteDir)) {
+            String remotePath = join(remoteDir, entry.name());
+            Path localPath = localChild(localDir, entry.name());
+            if (localPath == null) {
+                // Tên do server gửi về không được phép ghi ra ngoài thư mục đích
+                failed.incrementAndGet();
+                System.out.println("\033[31mBỏ qua tên không hợp lệ từ server: " + remotePath + "\033[0m");
+                continue;
+            }
+            if (entry.directory()) {
+                submit(() -> downloadDirectory(remotePath, localPath));
+            } else {
+                submit(() -> downloadFile(remotePath, entry, localPath));
+            }
+        }
+    }
+
+    private void downloadFile(String remotePath, FtpFile entry, Path localPath) throws IOException {
+        FtpFile remote = withAttributes(remotePath, entry);
+        if (Files.isRegularFile(localPath) && Files.size(localPath) == remote.size()
+                && Files.getLastModifiedTime(localPath).toMillis() / 1000 == remote.modified().getEpochSecond()) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        // Tải vào file tạm rồi đổi tên, để lần chạy bị ngắt không để lại file dở trông như đã đủ
+        Path partial = localPath.resolveSibling(localPath.getFileName() + ".part");
+        long received;
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            received = pool.retrieve(remotePath, out);
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw new IOException("RETR " + remotePath + ": " + e.getMessage(), e);
+        }
+        Files.move(partial, localPath, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(localPath, FileTime.from(remote.modified()));
+        transferred.incrementAndGet();
+        bytes.addAndGet(received);
+    }
+
+    private void uploadDirectory(Path localDir, String remoteDir, boolean exists) throws IOException {
+        Map<String, FtpFile> remote = new HashMap<>();
+        if (exists) {
+            try {
+                for (FtpFile entry : listRemote(remoteDir)) {
+                    remote.put(entry.name(), entry);
+                }
+            } catch (FtpException e) {
+                // Chỉ thư mục gốc mới chưa biết có tồn tại hay không
+                if (e.getCode() != 550) {
+                    throw e;
+                }
+                exists = false;
+            }
+        }
+        if (!exists) {
+            pool.execute(connection -> {
+                connection.mkd(remoteDir);
+                return null;
+            });
+        }
+        directories.incrementAndGet();
+
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(localDir)) {
+            children = stream.toList();
+        }
+        for (Path localPath : children) {
+            String name = localPath.getFileName().toString();
+            String remotePath = join(remoteDir, name);
+            FtpFile entry = remote.get(name);
+            if (Files.isDirectory(localPath)) {
+                submit(() -> uploadDirectory(localPath, remotePath, entry != null));
+            } else if (Files.isRegularFile(localPath)) {
+                submit(() -> uploadFile(localPath, remotePath, entry));
+            }
+        }
+    }
+
+    private void uploadFile(Path localPath, String remotePath, FtpFile entry) throws IOException {
+        if (entry != null && !entry.directory()) {
+            FtpFile remote = withAttributes(remotePath, entry);
+            long localSeconds = Files.getLastModifiedTime(localPath).toMillis() / 1000;
+            if (remote.size() == Files.size(localPath) && remote.modified().getEpochSecond() >= localSeconds) {
+                skipped.incrementAndGet();
+                return;
+            }
+        }
+        try (InputStream in = Files.newInputStream(localPath)) {
+            bytes.addAndGet(pool.store(remotePath, in));
+        } catch (IOException e) {
+            throw new IOException("STOR " + remotePath + ": " + e.getMessage(), e);
+        }
+        transferred.incrementAndGet();
+    }
+
+    // MLSD nếu server hỗ trợ; nếu không thì NLST, còn kích thước và thời điểm hỏi sau bằng SIZE/MDTM
+    private List<FtpFile> listRemote(String remoteDir) throws IOException {
+        return pool.execute(connection -> {
+            try {
+                return connection.list(remoteDir);
+            } catch (FtpException e) {
+                if (e.getCode() != 500 && e.getCode() != 502) {
+                    throw e;
+                }
+            }
+            List<FtpFile> entries = new ArrayList<>();
+            for (String name : connection.nameList(remoteDir)) {
+                name = name.substring(name.lastIndexOf('/') + 1);
+                if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+                    continue;
+                }
+                try {
+                    entries.add(new FtpFile(name, false, connection.size(join(remoteDir, name)), null));
+                } catch (FtpException e) {
+                    // SIZE chỉ trả lời cho file, 550 ở đây là thư mục
+                    entries.add(new FtpFile(name, true, -1, null));
+                }
+            }
+            return entries;
+        });
+    }
+
+    // Bổ sung kích thước/thời điểm còn thiếu trong danh sách bằng SIZE và MDTM
+    private FtpFile withAttributes(String remotePath, FtpFile entry) throws IOException {
+        if (entry.size() >= 0 && entry.modified() != null) {
+            return entry;
+        }
+        return pool.execute(connection -> {
+            long size = entry.size() >= 0 ? entry.size() : connection.size(remotePath);
+            Instant modified = entry.modified() != null ? entry.modified() : connection.mdtm(remotePath);
+            return new FtpFile(entry.name(), false, size, modified);
+        });
+    }
+
+    // File con trong localDir; null nếu tên có thể trỏ ra ngoài (chứa / hoặc \, là . hoặc ..)
+    private static Path localChild(Path localDir, String name) {
+        if (name.isEmpty() || name.equals(".") || name.equals("..")
+                || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+            return null;
+        }
+        Path localPath = localDir.resolve(name);
+        return localPath.normalize().startsWith(localDir.normalize()) ? localPath : null;
+    }
+
+    private static String join(String dir, String name) {
+        return dir.endsWith("/") ? dir + name : dir + "/" + name;
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    // Dùng cho job chạy định kỳ: MirrorSync download|upload host port user password remoteDir localDir [workers]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 7 || !(args[0].equals("download") || args[0].equals("upload"))) {
+            System.out.println("Usage: MirrorSync download|upload <host> <port> <user> <password> <remoteDir> <localDir> [workers]");
+            return;
+        }
+        int workers = args.length > 7 ? Integer.parseInt(args[7]) : 8;
+        try (FtpClientPool pool = new FtpClientPool(args[1], Integer.parseInt(args[2]), args[3], args[4], workers)) {
+            Result result = args[0].equals("download")
+                    ? download(pool, workers, args[5], Path.of(args[6]))
+                    : upload(pool, workers, Path.of(args[6]), args[5]);
+            if (result.failed() > 0) {
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.ftpclient;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Tải một file bằng nhiều phiên song song, mỗi phiên dùng REST + RETR cho một đoạn byte riêng
+public class SegmentedDownloader {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final String hostname;
+    private final int port;
+    private final String username;
+    private final String password;
+
+    public SegmentedDownloader(String hostname, int port, String username, String password) {
+        this.hostname = hostname;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Downloads {@code remoteFile} over {@code segments} control sessions into a
+     * local file of the same name.
+     *
+     * @return true if every segment arrived complete; otherwise the local file
+     * is cut back to the bytes received without a gap, so a REST + RETR
+     * resume continues from there
+     */
+    public boolean download(String remoteFile, int segments) throws IOException {
+        long size;
+        try (Socket controlSocket = new Socket(hostname, port)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream()));
+            PrintWriter writer = new PrintWriter(controlSocket.getOutputStream(), true);
+            login(reader, writer);
+            size = CommandHandler.remoteSize(writer, reader, remoteFile);
+            writer.println("QUIT");
+        }
+        if (size <= 0) {
+            System.out.println("\033[31mNothing to download: remote size unknown or 0.\033[0m");
+            return false;
+        }
+
+        segments = (int) Math.max(1, Math.min(segments, size / BUFFER_SIZE + 1));
+        long segmentSize = (size + segments - 1) / segments;
+        Path localFile = Path.of(remoteFile).getFileName();
+
+        // Cấp phát trước file local, mỗi phiên ghi thẳng vào vùng của mình
+        try (RandomAccessFile raf = new RandomAccessFile(localFile.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(segments);
+        List<Future<Long>> results = new ArrayList<>();
+        try (FileChannel fileChannel = FileChannel.open(localFile, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < segments; i++) {
+                long from = i * segmentSize;
+                long length = Math.min(segmentSize, size - from);
+                results.add(pool.submit(() -> downloadSegment(remoteFile, fileChannel, from, length)));
+            }
+
+            boolean complete = true;
+            long received = 0;
+            // Số byte liền mạch tính từ đầu file, tới đoạn đầu tiên bị thiếu
+            long prefix = 0;
+            for (int i = 0; i < results.size(); i++) {
+                long expected = Math.min(segmentSize, size - i * segmentSize);
+                long got;
+                try {
+                    got = results.get(i).get();
+                } catch (Exception e) {
+                    System.out.println("\033[31mSegment " + i + " failed: " + e.getMessage() + "\033[0m");
+                    got = 0;
+                }
+                received += got;
+                if (complete) {
+                    prefix += got;
+                }
+                if (got != expected) {
+                    System.out.println("\033[31mSegment " + i + " incomplete: " + got + "/" + expected + " bytes\033[0m");
+                    complete = false;
+                }
+            }
+            if (!complete) {
+                // Cắt bỏ phần sau chỗ thiếu đầu tiên (kể cả các lỗ toàn số 0), để REST + RETR tiếp tục đúng từ đó
+                fileChannel.truncate(prefix);
+                System.out.println("\033[31mKept the first " + prefix + " of " + size + " bytes.\033[0m");
+            }
+            fileChannel.force(false);
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("\033[32m%d bytes in %.2f s over %d segments: %.1f MB/s\033[0m%n",
+                    received, seconds, segments, received / seconds / (1 << 20));
+            return complete;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Một phiên điều khiển riêng: REST from, RETR, đọc đúng length byte rồi đóng kênh dữ liệu
+    private long downloadSegment(String remoteFile, FileChannel fileChannel, long from, long length) throws IOException {
+        try (Socket controlSocket = new Socket(hostname, port)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(controlSocket.getInputStream()));
+            PrintWriter writer = new PrintWriter(controlSocket.getOutputStream(), true);
+            login(reader, writer);
+
+            writer.println("TYPE I");
+            CommandHandler.readResponse(reader);
+            writer.println("PASV");
+            int passivePort = CommandHandler.extractPassivePort(CommandHandler.readResponse(reader));
+
+            long received = 0;
+            try (Socket dataSocket = new Socket(controlSocket.getInetAddress(), passivePort);
+                 InputStream dataIn = dataSocket.getInputStream()) {
+                if (from > 0) {
+                    writer.println("REST " + from);
+                    String response = CommandHandler.readResponse(reader);
+                    if (!response.startsWith("350")) {
+                        throw new IOException(response.trim());
+                    }
+                }
+                writer.println("RETR " + remoteFile);
+                String response = CommandHandler.readResponse(reader);
+                if (!response.startsWith("150")) {
+                    throw new IOException(response.trim());
+                }
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (received < length) {
+                    int bytesRead = dataIn.read(buffer, 0, (int) Math.min(buffer.length, length - received));
+                    if (bytesRead == -1) {
+                        break;
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, bytesRead);
+                    while (chunk.hasRemaining()) {
+                        fileChannel.write(chunk, from + received + chunk.position());
+                    }
+                    received += bytesRead;
+                }
+            }
+            // Đóng sớm kênh dữ liệu nên server có thể trả 226 hoặc lỗi, phần của ta đã đủ
+            CommandHandler.readResponse(reader);
+            writer.println("QUIT");
+            return received;
+        }
+    }
+
+    private void login(BufferedReader reader, PrintWriter writer) throws IOException {
+        CommandHandler.readResponse(reader);
+        writer.println("USER " + username);
+        CommandHandler.readResponse(reader);
+        writer.println("PASS " + password);
+        String response = CommandHandler.readResponse(reader);
+        if (!response.startsWith("230")) {
+            throw new IOException("Login failed: " + response.trim());
+        }
+    }
+}
@@ -2,35 +2,26 @@ package org.example.ftpserver;
 
 public class Account {
     private String username;
-    private String password;
+    private String passwordHash;
     private String rootFolder;
-    private boolean online;
 
-    public Account(String username, String password, String rootFolder) {
+    public Account(String username, String passwordHash, String rootFolder) {
         this.username = username;
-        this.password = password;
+        this.passwordHash = passwordHash;
         this.rootFolder = rootFolder;
-        this.online = false;
     }
 
     public String getUsername() {
         return username;
     }
 
-    public String getPassword() {
-        return password;
+    // PBKDF2 hash, or the plaintext password for entries not migrated yet
+    public String getPasswordHash() {
+        return passwordHash;
     }
 
     public String getRootFolder() {
         return rootFolder;
     }
 
-    public boolean isOnline() {
-        return online;
-    }
-
-    public void setOnline(boolean status) {
-        this.online = status;
-    }
-
 }
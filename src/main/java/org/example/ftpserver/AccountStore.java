@@ -0,0 +1,172 @@
+package org.example.ftpserver;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts indexed by username.
+ * <p>
+ * The index is an immutable map that is swapped as a whole when the
+ * accounts file changes, so lookups never lock and never see a half-loaded
+ * file. PBKDF2 is deliberately slow, so credentials that verified recently
+ * are remembered as an HMAC under a per-process key and checked with that
+ * instead.
+ */
+public class AccountStore {
+    private final Path file;
+    private volatile Map<String, Account> accounts = Map.of();
+    private volatile long loadedModified;
+    private volatile long loadedSize;
+
+    private final int verifiedCacheSize;
+    private final Map<String, byte[]> verified;
+    private final byte[] cacheKey = new byte[32];
+
+    private AccountStore(Path file, int verifiedCacheSize) {
+        this.file = file;
+        this.verifiedCacheSize = verifiedCacheSize;
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > AccountStore.this.verifiedCacheSize;
+            }
+        };
+        new SecureRandom().nextBytes(cacheKey);
+    }
+
+    /**
+     * Loads the accounts file given by -Dftp.accounts, or else the classpath
+     * resource. Only a file on disk is watched for changes.
+     */
+    public static AccountStore load(String resource) {
+        Path file = ServerConfig.ACCOUNTS_FILE != null ? Path.of(ServerConfig.ACCOUNTS_FILE) : resourceFile(resource);
+        AccountStore store = new AccountStore(file, ServerConfig.CREDENTIAL_CACHE_SIZE);
+
+        if (file != null) {
+            store.reload();
+            ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("ftp-accounts-reload").daemon().factory());
+            watcher.scheduleWithFixedDelay(store::reloadIfChanged, ServerConfig.ACCOUNTS_RELOAD_MS,
+                    ServerConfig.ACCOUNTS_RELOAD_MS, TimeUnit.MILLISECONDS);
+        } else {
+            InputStream is = AccountStore.class.getClassLoader().getResourceAsStream(resource);
+            store.index(Utils.readAccountsFromFile(is));
+        }
+        return store;
+    }
+
+    private static Path resourceFile(String resource) {
+        URL url = AccountStore.class.getClassLoader().getResource(resource);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Path.of(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    public Account find(String username) {
+        return accounts.get(username);
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+
+    public boolean verify(Account account, String password) {
+        String stored = account.getPasswordHash();
+        byte[] fingerprint = fingerprint(account.getUsername(), stored, password);
+
+        byte[] known;
+        synchronized (verified) {
+            known = verified.get(account.getUsername());
+        }
+        if (known != null && MessageDigest.isEqual(known, fingerprint)) {
+            return true;
+        }
+
+        if (!PasswordHasher.verify(stored, password)) {
+            return false;
+        }
+        synchronized (verified) {
+            verified.put(account.getUsername(), fingerprint);
+        }
+        return true;
+    }
+
+    // Binds the password to the stored hash, so a changed password in the file invalidates the entry
+    private byte[] fingerprint(String username, String stored, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(stored.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    private void reloadIfChanged() {
+        try {
+            if (Files.getLastModifiedTime(file).toMillis() != loadedModified || Files.size(file) != loadedSize) {
+                reload();
+            }
+        } catch (IOException e) {
+            System.err.println("Account reload Error: " + e.getMessage());
+        }
+    }
+
+    private void reload() {
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            long size = Files.size(file);
+            try (InputStream is = Files.newInputStream(file)) {
+                index(Utils.readAccountsFromFile(is));
+            }
+            loadedModified = modified;
+            loadedSize = size;
+        } catch (IOException e) {
+            System.err.println("Account reload Error: " + e.getMessage());
+        }
+    }
+
+    // Builds the new index completely, then publishes it in one write
+    private void index(List<Account> list) {
+        Map<String, Account> index = new HashMap<>(list.size() * 4 / 3 + 1);
+        int plaintext = 0;
+        for (Account account : list) {
+            index.put(account.getUsername(), account);
+            if (!PasswordHasher.isHashed(account.getPasswordHash())) {
+                plaintext++;
+            }
+        }
+        accounts = Map.copyOf(index);
+
+        System.out.println("Loaded " + index.size() + " accounts.");
+        if (plaintext > 0) {
+            System.err.println(plaintext + " accounts still have plaintext passwords, hash them with PasswordHasher.");
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server-wide cache of file sizes and modification times for SIZE and MDTM,
+ * kept per directory. The first lookup in a directory reads the attributes
+ * of all its entries in one pass, so a client checking every file of a
+ * tree costs one directory scan each instead of one stat per command.
+ * <p>
+ * Like {@link ListingCache}, a directory is dropped when a WatchService
+ * reports a change in it, when this server changes it, or when the cache
+ * holds more than its entry budget, least recently used first. A directory
+ * with more entries than the whole budget is remembered as such and its
+ * files are read one at a time, without scanning it again.
+ */
+public final class AttributeCache {
+    private static final AttributeCache INSTANCE = new AttributeCache(ServerConfig.ATTR_CACHE_ENTRIES);
+    // Oversized directories remembered, least recently used forgotten first
+    private static final int MAX_OVERSIZED = 1024;
+
+    private final int maxEntries;
+    private final LinkedHashMap<Path, Map<String, Attributes>> directories = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    // Directories being scanned, with how often each was changed meanwhile
+    private final Map<Path, Long> scanning = new HashMap<>();
+    private final LinkedHashMap<Path, Boolean> oversized = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Boolean> eldest) {
+            return size() > MAX_OVERSIZED;
+        }
+    };
+    private long totalEntries;
+    private WatchService watchService;
+
+    public record Attributes(boolean directory, long size, long modifiedMillis) {
+    }
+
+    public AttributeCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        if (maxEntries <= 0) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread.ofPlatform().name("ftp-attr-watcher").daemon().start(this::watch);
+        } catch (IOException e) {
+            // Without a watcher changes made by others would go unnoticed, so read through instead
+            System.err.println("AttributeCache Error: " + e.getMessage());
+            watchService = null;
+        }
+    }
+
+    public static AttributeCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Attributes of {@code file}, or null if it does not exist.
+     */
+    public Attributes get(Path file) throws IOException {
+        Path dir = file.getParent();
+        if (dir == null || watchService == null) {
+            return read(file);
+        }
+        String name = file.getFileName().toString();
+
+        WatchKey key;
+        synchronized (this) {
+            Map<String, Attributes> entries = directories.get(dir);
+            if (entries != null) {
+                return entries.get(name);
+            }
+            // Too big to keep, or another session is scanning it already
+            if (oversized.containsKey(dir) || scanning.containsKey(dir)) {
+                return read(file);
+            }
+            key = register(dir);
+            if (key == null) {
+                return read(file);
+            }
+            scanning.put(dir, 0L);
+        }
+
+        // Registered before reading, so a change made while the directory is scanned is not missed
+        Map<String, Attributes> entries = new HashMap<>();
+        boolean tooBig = false;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                if (entries.size() == maxEntries) {
+                    tooBig = true;
+                    break;
+                }
+                Attributes attributes = read(entry);
+                if (attributes != null) {
+                    entries.put(entry.getFileName().toString(), attributes);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            synchronized (this) {
+                scanning.remove(dir);
+                cancelIfUnused(dir, key);
+            }
+            return read(file);
+        }
+
+        synchronized (this) {
+            long changes = scanning.remove(dir);
+            if (changes != 0 || !key.isValid() || tooBig) {
+                // Changed meanwhile or cannot be kept: answer from disk, keep nothing
+                if (tooBig) {
+                    oversized.put(dir, Boolean.TRUE);
+                }
+                cancelIfUnused(dir, key);
+            } else {
+                Map<String, Attributes> previous = directories.put(dir, entries);
+                if (previous != null) {
+                    totalEntries -= previous.size();
+                }
+                totalEntries += entries.size();
+                watchKeys.put(dir, key);
+                evict();
+                return entries.get(name);
+            }
+        }
+        return read(file);
+    }
+
+    private static Attributes read(Path file) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Attributes(attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private WatchKey register(Path dir) {
+        try {
+            return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void cancelIfUnused(Path dir, WatchKey key) {
+        if (!directories.containsKey(dir)) {
+            key.cancel();
+        }
+    }
+
+    public synchronized void invalidate(Path dir) {
+        scanning.computeIfPresent(dir, (d, changes) -> changes + 1);
+        Map<String, Attributes> removed = directories.remove(dir);
+        if (removed != null) {
+            totalEntries -= removed.size();
+        }
+        WatchKey key = watchKeys.remove(dir);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    // Drops the directory a change to this file or directory shows up in
+    public void invalidateParentOf(Path path) {
+        Path parent = path.getParent();
+        if (parent != null) {
+            invalidate(parent);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Map<String, Attributes>>> it = directories.entrySet().iterator();
+        while (totalEntries > maxEntries && it.hasNext()) {
+            Map.Entry<Path, Map<String, Attributes>> eldest = it.next();
+            totalEntries -= eldest.getValue().size();
+            it.remove();
+            WatchKey key = watchKeys.remove(eldest.getKey());
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            // Not reset; the next lookup in this directory scans and registers it again
+            key.pollEvents();
+            key.cancel();
+            invalidate((Path) key.watchable());
+        }
+    }
+
+    public synchronized int size() {
+        return directories.size();
+    }
+}
@@ -2,14 +2,27 @@ package org.example.ftpserver;
 
 
 public class Command {
+    private Verb verb;
     private String type;
     private String argument;
 
     public Command(String type, String argument) {
         this.type = type.toUpperCase();
+        this.verb = CommandParser.verbOf(this.type);
         this.argument = argument;
     }
 
+    // Known verbs reuse the constant's name, so no type string is built per command
+    public Command(Verb verb, String argument) {
+        this.verb = verb;
+        this.type = verb.name();
+        this.argument = argument;
+    }
+
+    public Verb getVerb() {
+        return verb;
+    }
+
     public String getType() {
         return type;
     }
@@ -1,36 +1,77 @@
 package org.example.ftpserver;
 
+import javax.net.ssl.SSLSocket;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.*;
-import java.nio.file.attribute.*;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.PatternSyntaxException;
 
 public class CommandHandler {
-    private static final Set<String> NON_PRIVILEGED = Set.of("USER", "PASS", "QUIT");
-    private static final Set<String> PRIVILEGED = Set.of(
-            "SYST", "LIST", "PASV", "CWD", "CDUP", "PWD",
-            "RETR", "STOR", "DELE", "RMD", "MKD", "TYPE"
-    );
-
+    private static final int LIST_CHUNK_SIZE = 64 * 1024;
+    private static final DateTimeFormatter LIST_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("MMM dd HH:mm").withZone(ZoneId.systemDefault());
+    // RFC 3659 time-val, always UTC
+    private static final DateTimeFormatter MDTM_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+    /**
+     * Runs one command, timing it for {@link ServerMetrics}.
+     *
+     * @return true if the session should end
+     */
     public static boolean handle(Command cmd, ConnectionHandler conn) {
-        String type = cmd.getType();
+        long start = System.nanoTime();
+        try {
+            return dispatch(cmd, conn);
+        } finally {
+            ServerMetrics.getInstance().recordCommand(cmd.getVerb(), System.nanoTime() - start);
+        }
+    }
+
+    private static boolean dispatch(Command cmd, ConnectionHandler conn) {
+        Verb verb = cmd.getVerb();
         String arg = cmd.getArgument();
+        conn.getSession().setCurrentCommand(cmd.getType());
 
         // Process commands that do not require a login
-        if (NON_PRIVILEGED.contains(type)) {
-            switch (type) {
-                case "USER":
+        if (!verb.requiresLogin()) {
+            switch (verb) {
+                case USER:
                     handleUSER(arg, conn);
                     break;
-                case "PASS":
+                case PASS:
                     handlePASS(arg, conn);
                     break;
-                case "QUIT":
+                case QUIT:
                     handleQUIT(conn);
                     conn.cleanup();
                     break;
+                case FEAT:
+                    handleFEAT(conn);
+                    break;
+                case AUTH:
+                    handleAUTH(arg, conn);
+                    break;
+                case PBSZ:
+                    handlePBSZ(arg, conn);
+                    break;
+                case PROT:
+                    handlePROT(arg, conn);
+                    break;
+                case OPTS:
+                    handleOPTS(arg, conn);
+                    break;
+                case NOOP:
+                    conn.sendMessage(FTPResponse.NOOP_SUCCESS);
+                    break;
                 default:
                     conn.sendMessage(FTPResponse.NOT_IMPLEMENTED);
             }
@@ -38,49 +79,88 @@ public class CommandHandler {
         }
 
         // Check login before processing commands that require permissions
-        if (conn.getCurrentAccount() == null || !conn.getCurrentAccount().isOnline()) {
+        if (!conn.isLoggedIn()) {
             conn.sendMessage(FTPResponse.NEED_LOGIN);
             return false;
         }
 
 
-        switch (type) {
-            case "SYST":
+        switch (verb) {
+            case SYST:
                 conn.sendMessage(FTPResponse.SYSTEM_INFO);
                 break;
-            case "LIST":
-                handleLIST(conn);
+            case LIST:
+                handleLIST(arg, conn, false);
                 break;
-            case "PASV":
+            case NLST:
+                handleLIST(arg, conn, true);
+                break;
+            case PASV:
                 handlePASV(conn);
                 break;
-            case "CWD":
+            case CWD:
                 handleCWD(arg, conn);
                 break;
-            case "CDUP":
+            case CDUP:
                 handleCDUP(conn);
                 break;
-            case "PWD":
+            case PWD:
                 handlePWD(conn);
                 break;
-            case "RETR":
+            case RETR:
                 handleRETR(arg, conn);
                 break;
-            case "STOR":
+            case STOR:
                 handleSTOR(arg, conn);
                 break;
-            case "DELE":
+            case DELE:
                 handleDELE(arg, conn);
                 break;
-            case "RMD":
+            case RMD:
                 handleRMD(arg, conn);
                 break;
-            case "MKD":
+            case MKD:
                 handleMKD(arg, conn);
                 break;
-            case "TYPE":
+            case TYPE:
                 handleTYPE(arg, conn);
                 break;
+            case MODE:
+                handleMODE(arg, conn);
+                break;
+            case ALLO:
+                handleALLO(arg, conn);
+                break;
+            case REST:
+                handleREST(arg, conn);
+                break;
+            case SIZE:
+                handleSIZE(arg, conn);
+                break;
+            case MDTM:
+                handleMDTM(arg, conn);
+                break;
+            case MLSD:
+                handleMLSD(arg, conn);
+                break;
+            case MLST:
+                handleMLST(arg, conn);
+                break;
+            case HASH:
+                handleHASH(arg, conn);
+                break;
+            case XCRC:
+                handleChecksum(arg, "CRC32", conn);
+                break;
+            case XMD5:
+                handleChecksum(arg, "MD5", conn);
+                break;
+            case XSHA256:
+                handleChecksum(arg, "SHA-256", conn);
+                break;
+            case SITE:
+                handleSITE(arg, conn);
+                break;
             default:
                 conn.sendMessage(FTPResponse.NOT_IMPLEMENTED);
         }
@@ -95,13 +175,17 @@ public class CommandHandler {
             return;
         }
 
+        // A new USER ends the current login
+        if (conn.isLoggedIn()) {
+            conn.setLoggedIn(false);
+            SessionRegistry.getInstance().logout(conn.getSession());
+        }
 
-        for (Account acc : conn.getAccounts()) {
-            if (acc.getUsername().equals(username)) {
-                conn.setCurrentAccount(acc);
-                conn.sendMessage(FTPResponse.NEED_PASSWORD);
-                return;
-            }
+        Account acc = conn.getAccountStore().find(username);
+        if (acc != null) {
+            conn.setCurrentAccount(acc);
+            conn.sendMessage(FTPResponse.NEED_PASSWORD);
+            return;
         }
 
         conn.sendMessage(FTPResponse.LOGIN_INVALID);
@@ -109,27 +193,29 @@ public class CommandHandler {
 
     private static void handlePASS(String password, ConnectionHandler conn) {
         Account acc = conn.getCurrentAccount();
-        if (acc == null) {
+        if (acc == null || conn.isLoggedIn()) {
             conn.sendMessage(FTPResponse.BAD_SEQUENCE);
             return;
         }
 
-        if (password != null && password.equals(acc.getPassword())) {
-            acc.setOnline(true);
-            Path baseUserDir = Paths.get(System.getProperty("user.dir"))
-                    .resolve("src/main/java/org/example/ftpserver/user");
-
-            // Create rootFolder path for user
-            Path rootPath = baseUserDir.resolve(acc.getRootFolder()).normalize();
-
-            // Check root directory
-            if (!Files.exists(rootPath) || !Files.isDirectory(rootPath)) {
+        if (password != null && conn.getAccountStore().verify(acc, password)) {
+            // The user's root is resolved once here; every later path is relative to it
+            Storage storage = Storage.forAccount(acc);
+            if (storage == null) {
                 conn.sendMessage("550 Root folder does not exist.");
                 conn.setCurrentAccount(null);
                 return;
             }
 
-            conn.setWorkingDir(rootPath.toString() + "/");
+            if (!SessionRegistry.getInstance().login(conn.getSession(), acc.getUsername())) {
+                conn.sendMessage(FTPResponse.USER_SESSION_LIMIT);
+                conn.setCurrentAccount(null);
+                return;
+            }
+
+            conn.setStorage(storage);
+            conn.setLoggedIn(true);
+            conn.setWorkingDir("/");
             conn.sendMessage(FTPResponse.LOGIN_SUCCESS);
         } else {
             conn.sendMessage(FTPResponse.LOGIN_INVALID);
@@ -140,20 +226,127 @@ public class CommandHandler {
 
     // QUIT
     private static void handleQUIT(ConnectionHandler conn) {
-        Account acc = conn.getCurrentAccount();
-        if (acc != null && acc.isOnline()) {
-            acc.setOnline(false);
-        }
         conn.sendMessage(FTPResponse.QUIT_SUCCESS);
     }
 
+    // FEAT
+    private static void handleFEAT(ConnectionHandler conn) {
+        conn.sendMessage(FTPResponse.FEATURES_BEGIN);
+        conn.sendMessage(" MLST " + MlsxFormatter.FACTS);
+        conn.sendMessage(" SIZE");
+        conn.sendMessage(" MDTM");
+        conn.sendMessage(" REST STREAM");
+        conn.sendMessage(" MODE Z");
+        StringBuilder hash = new StringBuilder(" HASH ");
+        for (String algorithm : DigestCache.ALGORITHMS) {
+            hash.append(algorithm).append(algorithm.equals(conn.getHashAlgorithm()) ? "*;" : ";");
+        }
+        conn.sendMessage(hash.substring(0, hash.length() - 1));
+        conn.sendMessage(" XCRC");
+        conn.sendMessage(" XMD5");
+        conn.sendMessage(" XSHA256");
+        if (TlsSupport.isAvailable() && conn.canStartTls()) {
+            conn.sendMessage(" AUTH TLS");
+            conn.sendMessage(" PBSZ");
+            conn.sendMessage(" PROT");
+        }
+        conn.sendMessage(FTPResponse.FEATURES_END);
+    }
+
+    // AUTH TLS
+    private static void handleAUTH(String mechanism, ConnectionHandler conn) {
+        if (mechanism == null) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+        // "SSL" and "TLS-C" are the names older clients use for the same thing
+        String name = mechanism.toUpperCase();
+        if (!name.equals("TLS") && !name.equals("SSL") && !name.equals("TLS-C")) {
+            conn.sendMessage(FTPResponse.INVALID_PARAMETER);
+            return;
+        }
+        if (conn.isTlsControl() || conn.isLoggedIn()) {
+            conn.sendMessage(FTPResponse.BAD_SEQUENCE);
+            return;
+        }
+        if (!TlsSupport.isAvailable() || !conn.canStartTls()) {
+            conn.sendMessage(FTPResponse.TLS_NOT_AVAILABLE);
+            return;
+        }
+
+        conn.sendMessage(FTPResponse.AUTH_TLS_SUCCESS);
+        try {
+            conn.startTls();
+        } catch (IOException e) {
+            // Nothing can be said to the client any more, the connection is in an unknown state
+            System.err.println("AUTH TLS Error: " + e.getMessage());
+            conn.cleanup();
+        }
+    }
+
+    // PBSZ, always 0 for TLS
+    private static void handlePBSZ(String size, ConnectionHandler conn) {
+        if (!conn.isTlsControl()) {
+            conn.sendMessage(FTPResponse.BAD_SEQUENCE);
+            return;
+        }
+        if (size == null || !size.matches("\\d+")) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+        conn.setProtectionBufferSet(true);
+        conn.sendMessage(FTPResponse.PBSZ_SUCCESS);
+    }
+
+    // PROT
+    private static void handlePROT(String level, ConnectionHandler conn) {
+        if (!conn.isProtectionBufferSet()) {
+            conn.sendMessage(FTPResponse.BAD_SEQUENCE);
+            return;
+        }
+        if (level == null) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        switch (level.toUpperCase()) {
+            case "C":
+                conn.setDataProtected(false);
+                conn.sendMessage(FTPResponse.PROT_C_SUCCESS);
+                break;
+            case "P":
+                conn.setDataProtected(true);
+                conn.sendMessage(FTPResponse.PROT_P_SUCCESS);
+                break;
+            case "S":
+            case "E":
+                conn.sendMessage(FTPResponse.PROT_NOT_SUPPORTED);
+                break;
+            default:
+                conn.sendMessage(FTPResponse.INVALID_PARAMETER);
+        }
+    }
+
     // SYST
     private static void handleSYST(ConnectionHandler conn) {
         conn.sendMessage(FTPResponse.SYSTEM_INFO);
     }
 
-    // LIST
-    private static void handleLIST(ConnectionHandler conn) {
+    // LIST / NLST
+    private static void handleLIST(String arg, ConnectionHandler conn, boolean namesOnly) {
+        ListTarget target;
+        try {
+            target = resolveListTarget(arg, conn);
+        } catch (PatternSyntaxException e) {
+            // A mistyped wildcard such as "*.{gz"
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+        if (target == null) {
+            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            return;
+        }
+
         try {
             // Open data connection
             Socket dataSocket = openDataConnection(conn);
@@ -161,61 +354,202 @@ public class CommandHandler {
                 return;
             }
 
-            conn.sendMessage(FTPResponse.OPEN_DATA_CONN);
+            beginTransfer(dataSocket, conn);
+
+            try (Socket socket = dataSocket;
+                 OutputStream dataOut = dataOutput(socket, conn)) {
+                if (namesOnly) {
+                    streamListing(target, dataOut, true, conn);
+                } else if (target.filter == null && conn.getStorage().localPath(target.dir) != null) {
+                    // Repeated LIST of an unchanged directory on disk is served from the cache in one write
+                    Path dir = conn.getStorage().localPath(target.dir);
+                    ListingCache cache = ListingCache.getInstance();
+                    byte[] cached = cache.get(dir);
+                    if (cached != null) {
+                        dataOut.write(cached);
+                    } else {
+                        ListingCache.Capture capture = cache.capture(dir);
+                        streamListing(target, capture.tee(dataOut), false, conn);
+                        capture.commit();
+                    }
+                } else {
+                    streamListing(target, dataOut, false, conn);
+                }
+            }
 
-            BufferedWriter dataWriter = new BufferedWriter(new OutputStreamWriter(dataSocket.getOutputStream()));
+            conn.sendMessage(FTPResponse.CLOSING_DATA_CONN);
+        } catch (IOException | DirectoryIteratorException e) {
+            conn.sendMessage(FTPResponse.INTERNAL_ERROR);
+            System.err.println((namesOnly ? "NLST" : "LIST") + " Error: " + e.getMessage());
+        }
+    }
 
-            // Get the current directory path (workingDir)
-            Path dirPath = conn.resolvePath(".");
+    // Directory to list plus an optional filter on its entries
+    private record ListTarget(String dir, Predicate<String> filter) {
+    }
 
-            // Browse only files/folders in the current working directory
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dirPath)) {
-                for (Path entry : stream) {
-                    // Ignore hidden files/folders
-                    if (Files.isHidden(entry)) {
-                        continue;
-                    }
+    /**
+     * Parses a LIST/NLST argument: ls-style options are skipped, then a
+     * directory, a single file, or a glob in the last path segment
+     * ("logs/*.gz") is accepted.
+     *
+     * @return null if the path does not exist or is outside the user's root
+     * @throws PatternSyntaxException if the glob is malformed
+     */
+    private static ListTarget resolveListTarget(String arg, ConnectionHandler conn) {
+        String spec = arg == null ? "" : arg.trim();
+        // Clients often send "LIST -la"; options only affect a real ls, drop them
+        while (spec.startsWith("-")) {
+            int space = spec.indexOf(' ');
+            spec = space == -1 ? "" : spec.substring(space + 1).trim();
+        }
+        if (spec.isEmpty()) {
+            spec = ".";
+        }
+
+        Storage storage = conn.getStorage();
+        int slash = spec.lastIndexOf('/');
+        String lastSegment = spec.substring(slash + 1);
+        try {
+            if (lastSegment.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{')) {
+                String dirSpec = slash == -1 ? "." : (slash == 0 ? "/" : spec.substring(0, slash));
+                String dir = conn.resolvePath(dirSpec);
+                Storage.FileInfo info = dir == null ? null : storage.stat(dir);
+                if (info == null || !info.directory()) {
+                    return null;
+                }
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + lastSegment);
+                return new ListTarget(dir, name -> matcher.matches(Paths.get(name)));
+            }
+
+            String path = conn.resolvePath(spec);
+            Storage.FileInfo info = path == null ? null : storage.stat(path);
+            if (info == null) {
+                return null;
+            }
+            if (info.directory()) {
+                return new ListTarget(path, null);
+            }
+            // A single file is listed from its directory, filtered down to itself
+            String name = info.name();
+            return new ListTarget(path.substring(0, Math.max(path.lastIndexOf('/'), 1)), name::equals);
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
-                    // Get file/folder properties
-                    BasicFileAttributes basicAttrs = Files.readAttributes(entry, BasicFileAttributes.class);
-
-                    // Get details
-                    String permissions = getPermissions(entry);
-                    String owner = getOwner(entry);
-                    String groupName = "group";
-                    long size = basicAttrs.size();
-                    String modifiedTime = new SimpleDateFormat("MMM dd HH:mm").format(new Date(basicAttrs.lastModifiedTime().toMillis()));
-                    String name = entry.getFileName().toString();
-
-                    // Write information to the data connection
-                    String line = String.format("%s 1 %s %s %10d %s %s",
-                            permissions, owner, groupName, size, modifiedTime, name);
-                    dataWriter.write(line + "\r\n");
+    /**
+     * Writes the listing entry by entry through a bounded buffer, so memory
+     * stays flat no matter how large the directory is.
+     */
+    private static void streamListing(ListTarget target, OutputStream dataOut, boolean namesOnly,
+                                      ConnectionHandler conn) throws IOException {
+        OutputStream out = new BufferedOutputStream(dataOut, LIST_CHUNK_SIZE);
+        StringBuilder line = new StringBuilder(128);
+
+        // Hidden files/folders are left out by the storage
+        try (DirectoryStream<Storage.FileInfo> stream = conn.getStorage().list(target.dir, target.filter)) {
+            for (Storage.FileInfo entry : stream) {
+                line.setLength(0);
+                if (namesOnly) {
+                    line.append(entry.name()).append("\r\n");
+                } else {
+                    appendListLine(entry, line);
                 }
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        out.flush();
+    }
+
+    // "<permissions> 1 <owner> group <size> <modified> <name>", size right-aligned to 10
+    private static void appendListLine(Storage.FileInfo entry, StringBuilder line) {
+        String size = Long.toString(entry.size());
+        line.append(getPermissions(entry)).append(" 1 ").append(entry.owner()).append(" group ");
+        for (int i = size.length(); i < 10; i++) {
+            line.append(' ');
+        }
+        line.append(size).append(' ');
+        LIST_TIME_FORMAT.formatTo(Instant.ofEpochMilli(entry.modifiedMillis()), line);
+        line.append(' ').append(entry.name()).append("\r\n");
+    }
+
+    // MLSD
+    private static void handleMLSD(String arg, ConnectionHandler conn) {
+        String dirPath = conn.resolvePath(arg == null || arg.isEmpty() ? "." : arg);
+        try {
+            Storage.FileInfo info = dirPath == null ? null : conn.getStorage().stat(dirPath);
+            if (info == null || !info.directory()) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+
+            Socket dataSocket = openDataConnection(conn);
+            if (dataSocket == null) {
+                return;
             }
 
-            dataWriter.flush();
-            dataWriter.close();
-            dataSocket.close();
+            beginTransfer(dataSocket, conn);
+
+            MlsxFormatter formatter = new MlsxFormatter();
+            try (Socket socket = dataSocket;
+                 OutputStream dataOut = dataOutput(socket, conn);
+                 DirectoryStream<Storage.FileInfo> stream = conn.getStorage().list(dirPath, null)) {
+                for (Storage.FileInfo entry : stream) {
+                    formatter.append(entry, entry.name(), false, dataOut);
+                    formatter.flushIfFull(dataOut);
+                }
+                formatter.flushTo(dataOut);
+            }
 
             conn.sendMessage(FTPResponse.CLOSING_DATA_CONN);
-        } catch (IOException e) {
+        } catch (IOException | DirectoryIteratorException e) {
             conn.sendMessage(FTPResponse.INTERNAL_ERROR);
-            System.err.println("LIST Error: " + e.getMessage());
+            System.err.println("MLSD Error: " + e.getMessage());
         }
     }
 
+    // MLST
+    private static void handleMLST(String arg, ConnectionHandler conn) {
+        String name = arg == null || arg.isEmpty() ? "." : arg;
+        String path = conn.resolvePath(name);
+        try {
+            Storage.FileInfo info = path == null ? null : conn.getStorage().stat(path);
+            if (info == null) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+
+            MlsxFormatter formatter = new MlsxFormatter();
+            formatter.append(info, name, true);
+            String facts = formatter.takeString();
+
+            conn.sendMessage(String.format(FTPResponse.MLST_BEGIN, name));
+            conn.sendMessage(facts.substring(0, facts.length() - 2));
+            conn.sendMessage(FTPResponse.MLST_END);
+        } catch (IOException e) {
+            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            System.err.println("MLST Error: " + e.getMessage());
+        }
+    }
 
     // PASV
     private static void handlePASV(ConnectionHandler conn) {
         try {
-            ServerSocket serverSocket = new ServerSocket(0);
-            conn.setPassiveDataSocket(serverSocket);
+            // Give back a port left over from an earlier PASV before taking a new one
+            conn.setPassiveLease(null);
+            PassivePortPool.Lease lease = PassivePortPool.getInstance().lease();
+            if (lease == null) {
+                conn.sendMessage(FTPResponse.CANT_OPEN_DATA);
+                System.err.println("PASV Error: no free passive port");
+                return;
+            }
+            conn.setPassiveLease(lease);
 
             InetAddress localAddress = conn.getDataSocket() != null ? conn.getDataSocket().getLocalAddress() : InetAddress.getLocalHost();
             String ip = localAddress.getHostAddress().replace('.', ',');
 
-            int port = serverSocket.getLocalPort();
+            int port = lease.getPort();
             int p1 = port / 256;
             int p2 = port % 256;
 
@@ -249,41 +583,39 @@ public class CommandHandler {
             return;
         }
 
-        Path rootPath = conn.getRootPath();
-        Path newPath;
-
-        if (path.startsWith("/")) {
-            if (path.equals("/" + conn.getCurrentAccount().getRootFolder())) {
-                newPath = rootPath;
-            } else {
-                newPath = rootPath.resolve(path.substring(1)).normalize();
-            }
+        String newPath;
+        if (path.equals("/" + conn.getCurrentAccount().getRootFolder())) {
+            newPath = "/";
         } else {
-            newPath = Paths.get(conn.getWorkingDir()).resolve(path).normalize();
+            newPath = conn.resolvePath(path);
         }
 
-        if (!newPath.startsWith(rootPath)) {
+        if (newPath == null) {
             conn.sendMessage("550 Access denied.");
             return;
         }
 
-        if (Files.isDirectory(newPath)) {
-            conn.setWorkingDir(newPath.toString());
-            conn.sendMessage(FTPResponse.COMMAND_OKAY);
-        } else {
+        try {
+            Storage.FileInfo info = conn.getStorage().stat(newPath);
+            if (info != null && info.directory()) {
+                conn.setWorkingDir(newPath);
+                conn.sendMessage(FTPResponse.COMMAND_OKAY);
+            } else {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            }
+        } catch (IOException e) {
             conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            System.err.println("CWD Error: " + e.getMessage());
         }
     }
 
 
     // CDUP
     private static void handleCDUP(ConnectionHandler conn) {
-        Path currentPath = Paths.get(conn.getWorkingDir());
-        Path rootPath = conn.getRootPath();
-        Path parent = currentPath.getParent();
+        String parent = conn.resolvePath("..");
 
-        if (parent != null && parent.startsWith(rootPath)) {
-            conn.setWorkingDir(parent.toString());
+        if (parent != null) {
+            conn.setWorkingDir(parent);
             conn.sendMessage(FTPResponse.COMMAND_OKAY);
         } else {
             conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
@@ -292,15 +624,8 @@ public class CommandHandler {
 
     // PWD
     private static void handlePWD(ConnectionHandler conn) {
-        Path currentPath = Paths.get(conn.getWorkingDir());
-        Path rootPath = conn.getRootPath();
-
-        // Get the path relative to rootPath
-        Path relativePath = rootPath.relativize(currentPath);
-
-        String displayPath = relativePath.toString().isEmpty() ? "/" : "/" + relativePath.toString().replace("\\", "/");
-
-        String response = String.format("257 \"%s\" is the current directory.", displayPath);
+        // The working directory is already relative to the user's root
+        String response = String.format("257 \"%s\" is the current directory.", conn.getWorkingDir());
         conn.sendMessage(response);
     }
 
@@ -311,31 +636,38 @@ public class CommandHandler {
             return;
         }
 
-        Path filePath = Paths.get(conn.getWorkingDir(), filename).normalize();
-        if (!Files.exists(filePath) || Files.isDirectory(filePath)) {
-            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
-            return;
-        }
+        long offset = conn.getRestartOffset();
+        conn.setRestartOffset(0);
 
+        String filePath = conn.resolvePath(filename);
         try {
+            Storage.FileInfo info = filePath == null ? null : conn.getStorage().stat(filePath);
+            if (info == null || info.directory()) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+            if (offset > info.size()) {
+                conn.sendMessage(FTPResponse.INVALID_RESTART);
+                return;
+            }
+
             Socket dataSocket = openDataConnection(conn);
             if (dataSocket == null) {
                 return;
             }
 
-            conn.sendMessage(FTPResponse.OPEN_DATA_CONN);
-
-            try (OutputStream dataOut = dataSocket.getOutputStream();
-                 FileInputStream fileIn = new FileInputStream(filePath.toFile())) {
-
-                byte[] buffer = new byte[4096]; // 4KB buffer size
-                int bytesRead;
-                while ((bytesRead = fileIn.read(buffer)) != -1) {
-                    dataOut.write(buffer, 0, bytesRead);
-                }
-                dataOut.flush();
+            beginTransfer(dataSocket, conn);
+
+            // Popular files on disk are served from the content cache
+            Path localPath = conn.getStorage().localPath(filePath);
+            ReadableByteChannel cached = localPath == null ? null
+                    : ContentCache.getInstance().open(localPath, info.size(), info.modifiedMillis(), offset);
+            try (Socket socket = dataSocket;
+                 ReadableByteChannel file = cached != null ? cached : conn.getStorage().openRead(filePath, offset)) {
+                long sent = DataTransfer.sendFile(file, info.name(), socket, conn.getTransferType(),
+                        conn.getTransferMode(), TrafficShaper.getInstance().limiter(conn));
+                conn.getSession().addBytesSent(sent);
             }
-            dataSocket.close();
 
             conn.sendMessage(FTPResponse.CLOSING_DATA_CONN);
         } catch (IOException e) {
@@ -351,27 +683,54 @@ public class CommandHandler {
             return;
         }
 
-        Path filePath = Paths.get(conn.getWorkingDir(), filename).normalize();
+        long offset = conn.getRestartOffset();
+        conn.setRestartOffset(0);
 
+        String filePath = conn.resolvePath(filename);
+        Storage storage = conn.getStorage();
         try {
+            Storage.FileInfo info = filePath == null ? null : storage.stat(filePath);
+            if (filePath == null || (info != null && info.directory())) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+            // Resuming past the end would leave a hole in the file
+            if (offset > 0 && (info == null || offset > info.size())) {
+                conn.sendMessage(FTPResponse.INVALID_RESTART);
+                return;
+            }
+
             Socket dataSocket = openDataConnection(conn);
             if (dataSocket == null) {
                 return;
             }
 
-            conn.sendMessage(FTPResponse.OPEN_DATA_CONN);
-
-            try (InputStream dataIn = dataSocket.getInputStream();
-                 FileOutputStream fileOut = new FileOutputStream(filePath.toFile())) {
-
-                byte[] buffer = new byte[4096]; // 4KB buffer size
-                int bytesRead;
-                while ((bytesRead = dataIn.read(buffer)) != -1) {
-                    fileOut.write(buffer, 0, bytesRead);
+            beginTransfer(dataSocket, conn);
+
+            long allocate = conn.getAllocationSize();
+            conn.setAllocationSize(0);
+            // A resumed upload only passes the tail through here, so its digests are left for HASH to compute
+            // Only files on disk have their digests cached
+            Path localPath = storage.localPath(filePath);
+            List<DigestCache.Hasher> hashers = offset == 0 && localPath != null
+                    ? DigestCache.getInstance().storeHashers() : List.of();
+            if (localPath != null) {
+                DigestCache.getInstance().invalidate(localPath);
+                ContentCache.getInstance().invalidate(localPath);
+            }
+            try (Socket socket = dataSocket) {
+                long received = DataTransfer.receiveFile(storage, filePath, socket, conn.getTransferMode(), allocate,
+                        offset, hashers, TrafficShaper.getInstance().limiter(conn));
+                conn.getSession().addBytesReceived(received);
+                if (localPath != null) {
+                    DigestCache.getInstance().record(localPath, hashers);
+                }
+            } finally {
+                invalidateParentOf(filePath, conn);
+                if (localPath != null) {
+                    ContentCache.getInstance().invalidate(localPath);
                 }
-                fileOut.flush();
             }
-            dataSocket.close();
 
             conn.sendMessage(FTPResponse.CLOSING_DATA_CONN);
         } catch (IOException e) {
@@ -387,11 +746,17 @@ public class CommandHandler {
             return;
         }
 
-        Path filePath = conn.resolvePath(filename);
+        String filePath = conn.resolvePath(filename);
 
         try {
-            boolean deleted = Files.deleteIfExists(filePath);
+            boolean deleted = filePath != null && conn.getStorage().delete(filePath);
             if (deleted) {
+                invalidateParentOf(filePath, conn);
+                Path localPath = conn.getStorage().localPath(filePath);
+                if (localPath != null) {
+                    DigestCache.getInstance().invalidate(localPath);
+                    ContentCache.getInstance().invalidate(localPath);
+                }
                 conn.sendMessage(FTPResponse.DELETE_SUCCESS);
             } else {
                 conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
@@ -409,11 +774,17 @@ public class CommandHandler {
             return;
         }
 
-        Path dirPath = Paths.get(conn.getWorkingDir(), dirname).normalize();
+        String dirPath = conn.resolvePath(dirname);
 
         try {
-            boolean removed = Files.deleteIfExists(dirPath);
+            boolean removed = dirPath != null && conn.getStorage().delete(dirPath);
             if (removed) {
+                Path localPath = conn.getStorage().localPath(dirPath);
+                if (localPath != null) {
+                    ListingCache.getInstance().invalidate(localPath);
+                    AttributeCache.getInstance().invalidate(localPath);
+                }
+                invalidateParentOf(dirPath, conn);
                 conn.sendMessage(FTPResponse.DELETE_SUCCESS);
             } else {
                 conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
@@ -431,10 +802,15 @@ public class CommandHandler {
             return;
         }
 
-        Path dirPath = Paths.get(conn.getWorkingDir(), dirname).normalize();
+        String dirPath = conn.resolvePath(dirname);
+        if (dirPath == null) {
+            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            return;
+        }
 
         try {
-            Files.createDirectories(dirPath);
+            conn.getStorage().mkdirs(dirPath);
+            invalidateParentOf(dirPath, conn);
             conn.sendMessage(FTPResponse.COMMAND_OKAY);
         } catch (IOException e) {
             conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
@@ -451,9 +827,11 @@ public class CommandHandler {
 
         switch (type.toUpperCase()) {
             case "A":
+                conn.setTransferType('A');
                 conn.sendMessage(FTPResponse.TYPE_A_SUCCESS);
                 break;
             case "I":
+                conn.setTransferType('I');
                 conn.sendMessage(FTPResponse.TYPE_I_SUCCESS);
                 break;
             default:
@@ -461,14 +839,292 @@ public class CommandHandler {
         }
     }
 
+    // MODE
+    private static void handleMODE(String mode, ConnectionHandler conn) {
+        if (mode == null) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        switch (mode.toUpperCase()) {
+            case "S":
+                conn.setTransferMode('S');
+                conn.sendMessage(FTPResponse.MODE_S_SUCCESS);
+                break;
+            case "Z":
+                conn.setTransferMode('Z');
+                conn.sendMessage(FTPResponse.MODE_Z_SUCCESS);
+                break;
+            default:
+                conn.sendMessage(FTPResponse.INVALID_PARAMETER);
+        }
+    }
+
+    // ALLO
+    private static void handleALLO(String arg, ConnectionHandler conn) {
+        if (arg == null || arg.isEmpty()) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        // "ALLO <size> [R <record size>]", only the size matters here
+        String size = arg.split(" ", 2)[0];
+        try {
+            long allocate = Long.parseLong(size);
+            if (allocate < 0) {
+                conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+                return;
+            }
+            conn.setAllocationSize(allocate);
+            conn.sendMessage(FTPResponse.ALLO_SUCCESS);
+        } catch (NumberFormatException e) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+        }
+    }
+
+    // REST
+    private static void handleREST(String arg, ConnectionHandler conn) {
+        if (arg == null || arg.isEmpty()) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        try {
+            long offset = Long.parseLong(arg);
+            if (offset < 0) {
+                conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+                return;
+            }
+            conn.setRestartOffset(offset);
+            conn.sendMessage(String.format(FTPResponse.RESTART_MARKER, offset));
+        } catch (NumberFormatException e) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+        }
+    }
+
+    // SIZE
+    private static void handleSIZE(String filename, ConnectionHandler conn) {
+        if (filename == null || filename.isEmpty()) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        String filePath = conn.resolvePath(filename);
+        try {
+            AttributeCache.Attributes attributes = filePath == null ? null : attributes(filePath, conn);
+            if (attributes == null || attributes.directory()) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+            conn.sendMessage(String.format(FTPResponse.FILE_SIZE, attributes.size()));
+        } catch (IOException e) {
+            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            System.err.println("SIZE Error: " + e.getMessage());
+        }
+    }
+
+    // MDTM
+    private static void handleMDTM(String filename, ConnectionHandler conn) {
+        if (filename == null || filename.isEmpty()) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        String filePath = conn.resolvePath(filename);
+        try {
+            AttributeCache.Attributes attributes = filePath == null ? null : attributes(filePath, conn);
+            if (attributes == null || attributes.directory()) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+            conn.sendMessage(String.format(FTPResponse.FILE_MODIFIED,
+                    MDTM_FORMAT.format(Instant.ofEpochMilli(attributes.modifiedMillis()))));
+        } catch (IOException e) {
+            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            System.err.println("MDTM Error: " + e.getMessage());
+        }
+    }
+
+    // OPTS
+    private static void handleOPTS(String option, ConnectionHandler conn) {
+        if (option == null) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        String[] parts = option.split("\\s+", 2);
+        switch (parts[0].toUpperCase()) {
+            case "UTF8":
+                // Paths are always UTF-8
+                conn.sendMessage(FTPResponse.COMMAND_OKAY);
+                break;
+            case "HASH":
+                if (parts.length == 1) {
+                    conn.sendMessage(String.format(FTPResponse.OPTS_SUCCESS, conn.getHashAlgorithm()));
+                    return;
+                }
+                String algorithm = DigestCache.algorithm(parts[1].trim());
+                if (algorithm == null) {
+                    conn.sendMessage(FTPResponse.INVALID_PARAMETER);
+                    return;
+                }
+                conn.setHashAlgorithm(algorithm);
+                conn.sendMessage(String.format(FTPResponse.OPTS_SUCCESS, algorithm));
+                break;
+            default:
+                conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+        }
+    }
+
+    // HASH
+    private static void handleHASH(String filename, ConnectionHandler conn) {
+        if (filename == null || filename.isEmpty()) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        String filePath = conn.resolvePath(filename);
+        try {
+            Storage.FileInfo info = filePath == null ? null : conn.getStorage().stat(filePath);
+            if (info == null || info.directory()) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+            String algorithm = conn.getHashAlgorithm();
+            String digest = digest(filePath, algorithm, conn);
+            conn.sendMessage(String.format(FTPResponse.FILE_HASH, algorithm, info.size(), digest, filename));
+        } catch (IOException e) {
+            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            System.err.println("HASH Error: " + e.getMessage());
+        }
+    }
+
+    // XCRC, XMD5, XSHA256: the whole file's digest, in upper case like the servers that introduced them
+    private static void handleChecksum(String filename, String algorithm, ConnectionHandler conn) {
+        if (filename == null || filename.isEmpty()) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        String filePath = conn.resolvePath(filename);
+        try {
+            Storage.FileInfo info = filePath == null ? null : conn.getStorage().stat(filePath);
+            if (info == null || info.directory()) {
+                conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+                return;
+            }
+            String digest = digest(filePath, algorithm, conn);
+            conn.sendMessage(String.format(FTPResponse.FILE_CHECKSUM, digest.toUpperCase()));
+        } catch (IOException e) {
+            conn.sendMessage(FTPResponse.FILE_UNAVAILABLE);
+            System.err.println(algorithm + " Error: " + e.getMessage());
+        }
+    }
+
+    // SITE
+    private static void handleSITE(String arg, ConnectionHandler conn) {
+        if (arg == null) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        String[] parts = arg.split("\\s+");
+        if (parts[0].equalsIgnoreCase("RATE")) {
+            handleSiteRate(parts, conn);
+        } else if (parts[0].equalsIgnoreCase("STATS")) {
+            conn.sendMessage(FTPResponse.STATS_BEGIN);
+            for (String line : ServerMetrics.getInstance().summary()) {
+                conn.sendMessage(" " + line);
+            }
+            conn.sendMessage(FTPResponse.STATS_END);
+        } else {
+            conn.sendMessage(FTPResponse.NOT_IMPLEMENTED);
+        }
+    }
+
+    /**
+     * SITE RATE shows the limits that apply to this session; SITE RATE
+     * SESSION, USER or GLOBAL changes one of them, in bytes per second with
+     * 0 for unlimited. Only rate admins may change more than their own
+     * session, and everyone else may only lower it below the configured rate.
+     */
+    private static void handleSiteRate(String[] parts, ConnectionHandler conn) {
+        TrafficShaper shaper = TrafficShaper.getInstance();
+        String username = conn.getSession().getUsername();
+        if (parts.length == 1) {
+            conn.sendMessage(String.format(FTPResponse.RATE_INFO, shaper.getGlobalRate(),
+                    shaper.getAccountRate(username), conn.getRateLimit().getRate()));
+            return;
+        }
+
+        String level = parts[1].toUpperCase();
+        boolean forOtherUser = level.equals("USER") && parts.length == 4;
+        if (parts.length != (forOtherUser ? 4 : 3)) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+        long rate;
+        try {
+            rate = Long.parseLong(parts[parts.length - 1]);
+        } catch (NumberFormatException e) {
+            rate = -1;
+        }
+        if (rate < 0) {
+            conn.sendMessage(FTPResponse.SYNTAX_ERROR);
+            return;
+        }
+
+        boolean admin = Arrays.asList(ServerConfig.RATE_ADMINS.split(",")).contains(username);
+        switch (level) {
+            case "SESSION":
+                long ceiling = ServerConfig.RATE_PER_SESSION;
+                if (!admin && ceiling > 0 && (rate == 0 || rate > ceiling)) {
+                    conn.sendMessage(FTPResponse.PERMISSION_DENIED);
+                    return;
+                }
+                conn.getRateLimit().setRate(rate);
+                break;
+            case "USER":
+                if (!admin) {
+                    conn.sendMessage(FTPResponse.PERMISSION_DENIED);
+                    return;
+                }
+                shaper.setAccountRate(forOtherUser ? parts[2] : username, rate);
+                break;
+            case "GLOBAL":
+                if (!admin) {
+                    conn.sendMessage(FTPResponse.PERMISSION_DENIED);
+                    return;
+                }
+                shaper.setGlobalRate(rate);
+                break;
+            default:
+                conn.sendMessage(FTPResponse.INVALID_PARAMETER);
+                return;
+        }
+        System.out.println("Rate " + String.join(" ", Arrays.copyOfRange(parts, 1, parts.length))
+                + " set by " + username);
+        conn.sendMessage(String.format(FTPResponse.RATE_SET, level, rate));
+    }
+
     // Open data connection
     private static Socket openDataConnection(ConnectionHandler conn) {
         try {
-            if (conn.getPassiveDataSocket() != null) {
-                // passive mode
-                Socket dataSocket = conn.getPassiveDataSocket().accept();
-                conn.setPassiveDataSocket(null); // Reset
-                return dataSocket;
+            PassivePortPool.Lease lease = conn.getPassiveLease();
+            if (lease != null) {
+                // The client may be waiting for earlier replies (e.g. 227) before it connects
+                conn.flushReplies();
+                // passive mode, accepting also hands the port back to the pool
+                try {
+                    Socket dataSocket = lease.accept(ServerConfig.DATA_ACCEPT_TIMEOUT_MS, conn.getRemoteAddress());
+                    SocketTuning.tuneData(dataSocket);
+                    if (conn.isDataProtected()) {
+                        return TlsSupport.wrap(dataSocket, new byte[0]);
+                    }
+                    return dataSocket;
+                } finally {
+                    conn.setPassiveLease(null);
+                }
             } else {
                 conn.sendMessage(FTPResponse.CANT_OPEN_DATA);
                 return null;
@@ -480,19 +1136,37 @@ public class CommandHandler {
         }
     }
 
+    /**
+     * Sends 150 and, under PROT P, runs the data connection's TLS handshake.
+     * Clients only start the handshake once they have seen the 150, and
+     * they present the control connection's session, so this is usually an
+     * abbreviated handshake.
+     */
+    private static void beginTransfer(Socket dataSocket, ConnectionHandler conn) throws IOException {
+        conn.sendMessage(FTPResponse.OPEN_DATA_CONN);
+        if (dataSocket instanceof SSLSocket sslSocket) {
+            TlsSupport.handshake(sslSocket, ServerConfig.DATA_ACCEPT_TIMEOUT_MS);
+        }
+    }
+
+    // Listings in MODE Z are compressed like files; closing the stream ends the deflate stream
+    private static OutputStream dataOutput(Socket dataSocket, ConnectionHandler conn) throws IOException {
+        OutputStream out = TrafficShaper.getInstance().limiter(conn).shape(dataSocket.getOutputStream());
+        if (conn.getTransferMode() == 'Z') {
+            return ModeZ.compress(out, ServerConfig.MODE_Z_LEVEL);
+        }
+        return out;
+    }
+
     // Utility to get permission string
-    private static String getPermissions(Path path) {
+    private static String getPermissions(Storage.FileInfo entry) {
         StringBuilder sb = new StringBuilder();
-        if (Files.isDirectory(path)) {
-            sb.append("d");
-        } else {
-            sb.append("-");
-        }
+        sb.append(entry.directory() ? "d" : "-");
 
         // Owner permissions
-        sb.append(Files.isReadable(path) ? "r" : "-");
-        sb.append(Files.isWritable(path) ? "w" : "-");
-        sb.append(Files.isExecutable(path) ? "x" : "-");
+        sb.append(entry.readable() ? "r" : "-");
+        sb.append(entry.writable() ? "w" : "-");
+        sb.append(entry.executable() ? "x" : "-");
 
         sb.append("---");
         sb.append("---");
@@ -500,12 +1174,33 @@ public class CommandHandler {
         return sb.toString();
     }
 
-    private static String getOwner(Path path) {
-        try {
-            return Files.getOwner(path).getName();
-        } catch (IOException e) {
-            System.err.println("Error retrieving owner for " + path + ": " + e.getMessage());
-            return "unknown";
+    // Size and modification time for SIZE/MDTM, through the attribute cache when the file is on disk
+    private static AttributeCache.Attributes attributes(String path, ConnectionHandler conn) throws IOException {
+        Path localPath = conn.getStorage().localPath(path);
+        if (localPath != null) {
+            return AttributeCache.getInstance().get(localPath);
+        }
+        Storage.FileInfo info = conn.getStorage().stat(path);
+        return info == null ? null : new AttributeCache.Attributes(info.directory(), info.size(), info.modifiedMillis());
+    }
+
+    // Digests of files on disk are cached, others are read through every time
+    private static String digest(String path, String algorithm, ConnectionHandler conn) throws IOException {
+        Path localPath = conn.getStorage().localPath(path);
+        if (localPath != null) {
+            return DigestCache.getInstance().digest(localPath, algorithm);
+        }
+        try (ReadableByteChannel channel = conn.getStorage().openRead(path, 0)) {
+            return DigestCache.compute(channel, algorithm);
+        }
+    }
+
+    // Drops the cached LIST output and attributes of the directory a change to this path shows up in
+    private static void invalidateParentOf(String path, ConnectionHandler conn) {
+        Path localPath = conn.getStorage().localPath(path);
+        if (localPath != null) {
+            ListingCache.getInstance().invalidateParentOf(localPath);
+            AttributeCache.getInstance().invalidateParentOf(localPath);
         }
     }
 }
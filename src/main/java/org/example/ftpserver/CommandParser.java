@@ -1,5 +1,7 @@
 package org.example.ftpserver;
 
+import java.nio.charset.StandardCharsets;
+
 
 public class CommandParser {
     public static Command parse(String raw) {
@@ -7,10 +9,52 @@ public class CommandParser {
             return null;
         }
 
-        String[] parts = raw.split(" ", 2);
-        String type = parts[0];
-        String argument = (parts.length > 1) ? parts[1].trim() : null;
+        byte[] bytes = raw.getBytes(StandardCharsets.UTF_8);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parses one command line (without its line break) straight from the
+     * input buffer. The verb is decoded in place; the only String built is
+     * the argument, and only when there is one.
+     *
+     * @return the command, or null for an empty line
+     */
+    public static Command parse(byte[] bytes, int offset, int length) {
+        if (length <= 0) {
+            return null;
+        }
+
+        int end = offset + length;
+        int verbEnd = offset;
+        while (verbEnd < end && bytes[verbEnd] != ' ') {
+            verbEnd++;
+        }
+
+        String argument = null;
+        if (verbEnd < end) {
+            // Same as trim(): drop spaces and control characters around the argument
+            int argStart = verbEnd + 1;
+            int argEnd = end;
+            while (argStart < argEnd && (bytes[argStart] & 0xFF) <= ' ') {
+                argStart++;
+            }
+            while (argEnd > argStart && (bytes[argEnd - 1] & 0xFF) <= ' ') {
+                argEnd--;
+            }
+            argument = new String(bytes, argStart, argEnd - argStart, StandardCharsets.UTF_8);
+        }
+
+        Verb verb = Verb.decode(bytes, offset, verbEnd - offset);
+        if (verb == Verb.UNKNOWN) {
+            // Keep what the client sent for the log
+            return new Command(new String(bytes, offset, verbEnd - offset, StandardCharsets.UTF_8), argument);
+        }
+        return new Command(verb, argument);
+    }
 
-        return new Command(type, argument);
+    static Verb verbOf(String type) {
+        byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+        return Verb.decode(bytes, 0, bytes.length);
     }
 }
@@ -1,30 +1,64 @@
 package org.example.ftpserver;
 
+import javax.net.ssl.SSLSocket;
 import java.io.*;
 import java.net.*;
-import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ConnectionHandler implements Runnable {
     private Socket socket;
-    private BufferedReader reader;
+    private InputStream reader;
     private BufferedWriter writer;
-    private List<Account> accounts;
+    // Replies are kept in the writer until flushReplies() while this is set, except preliminary ones
+    private boolean holdingReplies;
+    private AccountStore accountStore;
+    private final SessionRegistry.Session session;
     private Account currentAccount;
+    private boolean loggedIn;
+    // Files of the logged-in account, and the current directory within them ("/" is its root)
+    private Storage storage;
     private String workingDir;
-    private ServerSocket passiveDataSocket;
+    private PassivePortPool.Lease passiveLease;
     private Socket dataSocket;
+    // 'I' until the client asks otherwise, the server has always sent files unconverted
+    private char transferType = 'I';
+    // 'S' (stream) or 'Z' (deflate compressed) for the data connection
+    private char transferMode = 'S';
+    // Size announced by ALLO for the next STOR
+    private long allocationSize;
+    // Offset set by REST for the next RETR or STOR
+    private long restartOffset;
+    // FTPS state: AUTH TLS done, PBSZ received, PROT P in effect
+    private boolean tlsControl;
+    private boolean protectionBufferSet;
+    private boolean dataProtected;
+    // Digest used by HASH, chosen with OPTS HASH
+    private String hashAlgorithm = "SHA-256";
+    // Bandwidth of this session's data connections, see TrafficShaper
+    private final TrafficShaper.TokenBucket rateLimit = new TrafficShaper.TokenBucket(ServerConfig.RATE_PER_SESSION);
 
-    public ConnectionHandler(Socket socket, List<Account> accounts) {
+    public ConnectionHandler(Socket socket, AccountStore accountStore, SessionRegistry.Session session) {
+        this(socket, accountStore, session, true);
+    }
+
+    // Sessions driven by a selector do their own I/O and skip the blocking streams
+    protected ConnectionHandler(Socket socket, AccountStore accountStore, SessionRegistry.Session session,
+                                boolean openStreams) {
         this.socket = socket;
-        this.accounts = accounts;
+        this.accountStore = accountStore;
+        this.session = session;
         this.currentAccount = null;
         this.workingDir = "/";
-        this.passiveDataSocket = null;
+        this.passiveLease = null;
         this.dataSocket = null;
 
+        if (!openStreams) {
+            return;
+        }
+
         try {
-            reader = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
+            reader = new BufferedInputStream(this.socket.getInputStream());
             writer = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream()));
         } catch (IOException e) {
             System.err.println("Connection Handler Error: " + e.getMessage());
@@ -36,18 +70,29 @@ public class ConnectionHandler implements Runnable {
         try {
             sendMessage(FTPResponse.WELCOME);
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println("Received: " + line);
-                Command command = CommandParser.parse(line);
-                if (command == null) {
-                    sendMessage(FTPResponse.NOT_IMPLEMENTED);
-                    continue;
+            byte[] line = new byte[ServerConfig.MAX_COMMAND_LENGTH];
+            int length;
+            while ((length = readLine(line)) != -1) {
+                // The replies to a command, or to a burst of pipelined commands, leave in one write
+                boolean pipelined = lineBuffered();
+                holdReplies();
+
+                if (length == -2) {
+                    sendMessage(FTPResponse.LINE_TOO_LONG);
+                } else {
+                    Command command = CommandParser.parse(line, 0, length);
+                    if (command == null) {
+                        sendMessage(FTPResponse.NOT_IMPLEMENTED);
+                    } else {
+                        System.out.println("Received: " + command.getType());
+                        if (CommandHandler.handle(command, this)) {
+                            break;
+                        }
+                    }
                 }
 
-                boolean shouldTerminate = CommandHandler.handle(command, this);
-                if (shouldTerminate) {
-                    break;
+                if (!pipelined) {
+                    flushReplies();
                 }
             }
         } catch (IOException e) {
@@ -58,19 +103,94 @@ public class ConnectionHandler implements Runnable {
     }
 
 
+    /**
+     * Whether the whole next command has already arrived. A partial line
+     * does not count, or a client that sends it slowly would wait for the
+     * reply to the command before it.
+     */
+    private boolean lineBuffered() throws IOException {
+        int available = Math.min(reader.available(), ServerConfig.MAX_COMMAND_LENGTH);
+        if (available == 0) {
+            return false;
+        }
+        reader.mark(available);
+        try {
+            // Only bytes that are already there are read, so this never blocks
+            for (int i = 0; i < available; i++) {
+                if (reader.read() == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Reads one line into {@code line} without its CRLF.
+     *
+     * @return the line length, -1 at end of stream, or -2 if the line did not fit and was skipped
+     */
+    private int readLine(byte[] line) throws IOException {
+        int length = 0;
+        boolean tooLong = false;
+        int b;
+        while ((b = reader.read()) != -1) {
+            if (b == '\n') {
+                if (tooLong) {
+                    return -2;
+                }
+                return (length > 0 && line[length - 1] == '\r') ? length - 1 : length;
+            }
+            if (length < line.length) {
+                line[length++] = (byte) b;
+            } else {
+                tooLong = true;
+            }
+        }
+        return -1;
+    }
+
     public void sendMessage(String message) {
+        ServerMetrics.getInstance().recordReply(message);
         try {
             writer.write(message + "\r\n");
-            writer.flush();
+            // A 1xx reply announces a transfer the client has to see coming
+            if (!holdingReplies || isPreliminary(message)) {
+                writer.flush();
+            }
 //            System.out.println("Sent: " + message);
         } catch (IOException e) {
             System.err.println("Send Message Error: " + e.getMessage());
         }
     }
 
+    protected static boolean isPreliminary(String message) {
+        return !message.isEmpty() && message.charAt(0) == '1';
+    }
+
+    // Keeps replies back until flushReplies(), which is called at the end of each response
+    public void holdReplies() {
+        holdingReplies = true;
+    }
+
+    public void flushReplies() {
+        holdingReplies = false;
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Send Message Error: " + e.getMessage());
+        }
+    }
 
-    public List<Account> getAccounts() {
-        return accounts;
+
+    public AccountStore getAccountStore() {
+        return accountStore;
+    }
+
+    public SessionRegistry.Session getSession() {
+        return session;
     }
 
     public Account getCurrentAccount() {
@@ -81,6 +201,22 @@ public class ConnectionHandler implements Runnable {
         this.currentAccount = account;
     }
 
+    public boolean isLoggedIn() {
+        return loggedIn;
+    }
+
+    public void setLoggedIn(boolean loggedIn) {
+        this.loggedIn = loggedIn;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public void setStorage(Storage storage) {
+        this.storage = storage;
+    }
+
     public String getWorkingDir() {
         return workingDir;
     }
@@ -89,12 +225,21 @@ public class ConnectionHandler implements Runnable {
         this.workingDir = dir;
     }
 
-    public ServerSocket getPassiveDataSocket() {
-        return passiveDataSocket;
+    // Host of the control connection; PASV only accepts data connections from it
+    public InetAddress getRemoteAddress() {
+        return socket.getInetAddress();
     }
 
-    public void setPassiveDataSocket(ServerSocket passiveDataSocket) {
-        this.passiveDataSocket = passiveDataSocket;
+    public PassivePortPool.Lease getPassiveLease() {
+        return passiveLease;
+    }
+
+    // Replacing a lease gives the previous port back to the pool
+    public void setPassiveLease(PassivePortPool.Lease passiveLease) {
+        if (this.passiveLease != null && this.passiveLease != passiveLease) {
+            this.passiveLease.release();
+        }
+        this.passiveLease = passiveLease;
     }
 
     public Socket getDataSocket() {
@@ -105,39 +250,125 @@ public class ConnectionHandler implements Runnable {
         this.dataSocket = dataSocket;
     }
 
-    public Path resolvePath(String path) {
-        Path rootPath = getRootPath();
-        Path resolvedPath;
+    public char getTransferType() {
+        return transferType;
+    }
+
+    public void setTransferType(char transferType) {
+        this.transferType = transferType;
+    }
 
-        if (path.startsWith("/")) {
-            resolvedPath = rootPath.resolve(path.substring(1)).normalize();
-        } else {
-            resolvedPath = Paths.get(this.getWorkingDir()).resolve(path).normalize();
-        }
+    public char getTransferMode() {
+        return transferMode;
+    }
 
-        if (!resolvedPath.startsWith(rootPath)) {
-            return null;
-        }
+    public void setTransferMode(char transferMode) {
+        this.transferMode = transferMode;
+    }
+
+    public long getAllocationSize() {
+        return allocationSize;
+    }
+
+    public void setAllocationSize(long allocationSize) {
+        this.allocationSize = allocationSize;
+    }
+
+    public long getRestartOffset() {
+        return restartOffset;
+    }
+
+    public void setRestartOffset(long restartOffset) {
+        this.restartOffset = restartOffset;
+    }
+
+    public boolean isTlsControl() {
+        return tlsControl;
+    }
+
+    public boolean isProtectionBufferSet() {
+        return protectionBufferSet;
+    }
+
+    public void setProtectionBufferSet(boolean protectionBufferSet) {
+        this.protectionBufferSet = protectionBufferSet;
+    }
+
+    public boolean isDataProtected() {
+        return dataProtected;
+    }
+
+    public void setDataProtected(boolean dataProtected) {
+        this.dataProtected = dataProtected;
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public void setHashAlgorithm(String hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    public TrafficShaper.TokenBucket getRateLimit() {
+        return rateLimit;
+    }
 
-        return resolvedPath;
+    // Sessions that do their own I/O cannot simply swap their streams for TLS ones
+    public boolean canStartTls() {
+        return true;
     }
 
+    /**
+     * Switches the control connection to TLS once "234" has been sent.
+     * Anything the client already sent after AUTH belongs to its handshake.
+     */
+    public void startTls() throws IOException {
+        flushReplies();
+        byte[] consumed = reader.readNBytes(reader.available());
+        SSLSocket sslSocket = TlsSupport.wrap(socket, consumed);
+        TlsSupport.handshake(sslSocket, ServerConfig.DATA_ACCEPT_TIMEOUT_MS);
+        socket = sslSocket;
+        reader = new BufferedInputStream(sslSocket.getInputStream());
+        writer = new BufferedWriter(new OutputStreamWriter(sslSocket.getOutputStream()));
+        tlsControl = true;
+    }
 
-    public Path getRootPath() {
-        return Paths.get(System.getProperty("user.dir"))
-                .resolve("src/main/java/org/example/ftpserver/user")
-                .resolve(this.getCurrentAccount().getRootFolder())
-                .normalize();
+    /**
+     * Resolves a client path against the working directory into the
+     * normalized absolute path {@link Storage} expects.
+     *
+     * @return null if ".." climbs above the user's root
+     */
+    public String resolvePath(String path) {
+        String full = path.startsWith("/") ? path : workingDir + "/" + path;
+        List<String> segments = new ArrayList<>();
+        for (String segment : full.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                segments.remove(segments.size() - 1);
+            } else {
+                segments.add(segment);
+            }
+        }
+        return "/" + String.join("/", segments);
     }
 
 
     public void cleanup() {
         try {
-            if (currentAccount != null) {
-                currentAccount.setOnline(false);
+            if (writer != null) {
+                flushReplies();
             }
-            if (passiveDataSocket != null && !passiveDataSocket.isClosed()) {
-                passiveDataSocket.close();
+            SessionRegistry.getInstance().close(session);
+            if (passiveLease != null) {
+                passiveLease.release();
+                passiveLease = null;
             }
             if (dataSocket != null && !dataSocket.isClosed()) {
                 dataSocket.close();
@@ -0,0 +1,336 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide cache of the content of popular files on disk, so RETR of
+ * the few files most clients download does not read them again each time.
+ * Each file is held in one direct ByteBuffer, off the Java heap, and every
+ * reader gets its own view of that buffer, so concurrent downloads share
+ * it without copying.
+ * <p>
+ * How often each file is requested is counted in a small frequency sketch
+ * that halves its counts now and then, so it follows what is popular now.
+ * A file is loaded once it has been asked for twice, and only if it is
+ * requested more often than the least recently used entries it would push
+ * out of the byte budget; a burst of one-off downloads therefore cannot
+ * flush the hot set.
+ * <p>
+ * An entry is only served while the file still has the size and
+ * modification time it had when it was loaded, so a change made outside
+ * the server is noticed by the next RETR. STOR and DELE drop the entry
+ * right away.
+ */
+public class ContentCache {
+    private static final ContentCache INSTANCE =
+            new ContentCache(ServerConfig.RETR_CACHE_BYTES, ServerConfig.RETR_CACHE_MAX_FILE);
+    // Requests, as counted by the sketch, before a file is worth loading
+    private static final int ADMIT_FREQUENCY = 2;
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch frequencies = new FrequencySketch(1 << 16);
+    private final Set<Path> loading = new HashSet<>();
+    private long totalBytes;
+    private long invalidations;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder hitBytes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    private record Entry(ByteBuffer content, long modifiedMillis) {
+    }
+
+    public ContentCache(long maxBytes, long maxFileBytes) {
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE);
+    }
+
+    public static ContentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Opens {@code file} from the cache at {@code offset}, loading it first
+     * if it has become popular enough.
+     *
+     * @param size     the file's current size
+     * @param modified the file's current modification time, in milliseconds
+     * @return a channel over the cached content, or null to read from disk
+     */
+    public CachedChannel open(Path file, long size, long modified, long offset) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        long invalidationsBefore;
+        synchronized (this) {
+            int frequency = frequencies.increment(file);
+            Entry entry = entries.get(file);
+            if (entry != null) {
+                if (entry.content.capacity() == size && entry.modifiedMillis == modified) {
+                    hits.increment();
+                    hitBytes.add(size - offset);
+                    return new CachedChannel(entry.content, offset);
+                }
+                // Changed on disk since it was loaded
+                remove(file);
+            }
+            misses.increment();
+            if (size == 0 || size > maxFileBytes || frequency < ADMIT_FREQUENCY
+                    || loading.contains(file) || !admits(frequency, size)) {
+                return null;
+            }
+            loading.add(file);
+            invalidationsBefore = invalidations;
+        }
+
+        // Read outside the lock; other sessions go to disk meanwhile
+        ByteBuffer content = null;
+        try {
+            content = load(file, size);
+        } catch (IOException | OutOfMemoryError e) {
+            System.err.println("ContentCache Error: cannot load " + file + ": " + e.getMessage());
+        }
+        synchronized (this) {
+            loading.remove(file);
+            if (content == null || invalidations != invalidationsBefore
+                    || !admits(frequencies.frequency(file), size)) {
+                // Something changed meanwhile, possibly this file: serve this copy once, keep nothing
+                return content == null ? null : new CachedChannel(content, offset);
+            }
+            evictFor(size);
+            entries.put(file, new Entry(content, modified));
+            totalBytes += size;
+        }
+        return new CachedChannel(content, offset);
+    }
+
+    // Whole file into a direct buffer; null if it did not have the expected size
+    private static ByteBuffer load(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != size) {
+                return null;
+            }
+            ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+            while (content.hasRemaining()) {
+                if (channel.read(content) == -1) {
+                    return null;
+                }
+            }
+            return content.flip();
+        }
+    }
+
+    /**
+     * Whether a file asked for {@code frequency} times would get in: there
+     * is room, or the least recently used entries that would have to go are
+     * each asked for less often.
+     */
+    private boolean admits(int frequency, long size) {
+        if (size > maxBytes) {
+            return false;
+        }
+        long needed = totalBytes + size - maxBytes;
+        Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+        while (needed > 0 && it.hasNext()) {
+            Map.Entry<Path, Entry> victim = it.next();
+            if (frequencies.frequency(victim.getKey()) >= frequency) {
+                rejections.increment();
+                return false;
+            }
+            needed -= victim.getValue().content.capacity();
+        }
+        return true;
+    }
+
+    private void evictFor(long size) {
+        Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes + size > maxBytes && it.hasNext()) {
+            Map.Entry<Path, Entry> eldest = it.next();
+            totalBytes -= eldest.getValue().content.capacity();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private void remove(Path file) {
+        Entry removed = entries.remove(file);
+        if (removed != null) {
+            totalBytes -= removed.content.capacity();
+        }
+    }
+
+    // Drops the file; readers that already have it finish with the old content
+    public synchronized void invalidate(Path file) {
+        invalidations++;
+        remove(file);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Bytes sent from the cache instead of disk
+    public long getHitBytes() {
+        return hitBytes.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    // Loads refused because the entries they would replace were asked for more often
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * One reader's view of a cached file. Besides read(), it can write the
+     * content straight to another channel, which saves RETR a copy.
+     */
+    public static class CachedChannel implements ReadableByteChannel {
+        private final ByteBuffer content;
+        private boolean open = true;
+
+        private CachedChannel(ByteBuffer content, long offset) {
+            this.content = content.duplicate().position((int) Math.min(offset, content.limit()));
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (!content.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), content.remaining());
+            dst.put(dst.position(), content, content.position(), n);
+            dst.position(dst.position() + n);
+            content.position(content.position() + n);
+            return n;
+        }
+
+        /**
+         * Writes up to {@code max} bytes from the current position to {@code target}.
+         *
+         * @return bytes written, 0 at the end of the file
+         */
+        public long transferTo(WritableByteChannel target, long max) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int limit = content.limit();
+            content.limit(content.position() + (int) Math.min(content.remaining(), max));
+            long sent = 0;
+            try {
+                while (content.hasRemaining()) {
+                    sent += target.write(content);
+                }
+            } finally {
+                content.limit(limit);
+            }
+            return sent;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * Approximate request counts per file: four small counters per file,
+     * picked by four hashes, of which the smallest is the estimate. Once
+     * ten times as many requests as there are counters have been counted,
+     * every counter is halved, so old popularity fades.
+     */
+    private static class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] counters;
+        private final int mask;
+        private final int resetAfter;
+        private int additions;
+
+        FrequencySketch(int size) {
+            this.counters = new byte[size];
+            this.mask = size - 1;
+            this.resetAfter = size * 10;
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < 4; i++) {
+                min = Math.min(min, counters[index(hash, i)]);
+            }
+            return min;
+        }
+
+        // Counts one request and returns the new estimate
+        int increment(Object key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < 4; i++) {
+                int index = index(hash, i);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                }
+                min = Math.min(min, counters[index]);
+            }
+            if (++additions >= resetAfter) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+            return min;
+        }
+
+        private int index(int hash, int i) {
+            int h = hash * (0x9E3779B9 + 2 * i) + i;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xED5AD4BB;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.example.ftpserver;
+
+import javax.net.ssl.SSLSocket;
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Copy loops between stored files and data connections.
+ */
+public class DataTransfer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final BufferPool STOR_BUFFERS =
+            new BufferPool(ServerConfig.STOR_BUFFER_SIZE, ServerConfig.STOR_BUFFER_POOL);
+    private static final long FSYNC_INTERVAL = (long) ServerConfig.STOR_FSYNC_MB << 20;
+
+    /**
+     * Sends a file, already opened at its restart offset, over the data
+     * connection and closes it. Binary stream-mode transfers over a socket
+     * that has a channel go straight from the source: FileChannel.transferTo
+     * (sendfile on Linux) for files on disk, the buffers themselves for
+     * files in memory or in the {@link ContentCache}. Everything else goes
+     * through the buffered copy, deflated in MODE Z. Either way the bytes
+     * put on the wire are drawn from {@code limiter}.
+     *
+     * @return number of bytes read from the file
+     */
+    public static long sendFile(ReadableByteChannel file, String name, Socket dataSocket, char transferType,
+                                char transferMode, TrafficShaper.Limiter limiter) throws IOException {
+        long start = System.nanoTime();
+
+        SocketChannel dataChannel = plainChannel(dataSocket);
+        boolean direct = transferType == 'I' && transferMode == 'S' && dataChannel != null;
+
+        long bytes;
+        try (ReadableByteChannel source = file) {
+            if (direct && source instanceof FileChannel fileChannel) {
+                bytes = sendZeroCopy(fileChannel, dataChannel, limiter);
+            } else if (direct && source instanceof MemoryStorage.ContentChannel content) {
+                bytes = sendFromMemory(content::transferTo, dataChannel, limiter);
+            } else if (direct && source instanceof ContentCache.CachedChannel cached) {
+                bytes = sendFromMemory(cached::transferTo, dataChannel, limiter);
+            } else if (transferMode == 'Z') {
+                int level = ModeZ.levelFor(name);
+                try (OutputStream out = ModeZ.compress(limiter.shape(dataSocket.getOutputStream()), level)) {
+                    bytes = sendBuffered(source, out, transferType == 'A');
+                }
+            } else {
+                bytes = sendBuffered(source, limiter.shape(dataSocket.getOutputStream()), transferType == 'A');
+            }
+        }
+
+        ServerMetrics.getInstance().recordTransfer("RETR", bytes, System.nanoTime() - start);
+        return bytes;
+    }
+
+    private static long sendZeroCopy(FileChannel fileChannel, SocketChannel dataChannel,
+                                     TrafficShaper.Limiter limiter) throws IOException {
+        long size = fileChannel.size();
+        long offset = fileChannel.position();
+        long position = offset;
+        // transferTo may send less than asked for, e.g. when the socket buffer is full
+        while (position < size) {
+            long sent = fileChannel.transferTo(position, Math.min(size - position, limiter.chunk()), dataChannel);
+            // Nothing left to send past a new, shorter end, e.g. after a concurrent STOR truncated the file
+            if (sent == 0 && position >= fileChannel.size()) {
+                throw new IOException("File shrank during transfer");
+            }
+            position += sent;
+            limiter.consume(sent);
+        }
+        return position - offset;
+    }
+
+    // transferTo of a ContentChannel or CachedChannel
+    private interface BufferSource {
+        long transferTo(WritableByteChannel target, long max) throws IOException;
+    }
+
+    private static long sendFromMemory(BufferSource content, SocketChannel dataChannel,
+                                       TrafficShaper.Limiter limiter) throws IOException {
+        long total = 0;
+        long sent;
+        while ((sent = content.transferTo(dataChannel, limiter.chunk())) > 0) {
+            total += sent;
+            limiter.consume(sent);
+        }
+        return total;
+    }
+
+    private static long sendBuffered(ReadableByteChannel source, OutputStream dataOut, boolean ascii) throws IOException {
+        InputStream fileIn = Channels.newInputStream(source);
+        OutputStream out = ascii ? new AsciiOutputStream(dataOut) : dataOut;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int bytesRead;
+        while ((bytesRead = fileIn.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+            total += bytesRead;
+        }
+        out.flush();
+        return total;
+    }
+
+    /**
+     * Receives a file from the data connection into large pooled direct
+     * buffers and writes them to storage. Files on disk are preallocated
+     * and synced according to the configured fsync policy.
+     *
+     * @param transferMode 'Z' if the client sends a deflate stream
+     * @param allocate size announced by ALLO, or 0 if unknown
+     * @param offset   position set by REST; the file is kept up to there and overwritten after it
+     * @param hashers  digests updated with every byte written, or an empty list
+     * @param limiter  bandwidth the bytes read from the wire are drawn from
+     * @return number of bytes written to the file
+     */
+    public static long receiveFile(Storage storage, String filePath, Socket dataSocket, char transferMode, long allocate,
+                                   long offset, List<DigestCache.Hasher> hashers,
+                                   TrafficShaper.Limiter limiter) throws IOException {
+        long start = System.nanoTime();
+
+        ReadableByteChannel dataChannel;
+        if (transferMode == 'Z') {
+            // Closing this channel only gives the Inflater back, the socket is closed by the caller
+            dataChannel = Channels.newChannel(ModeZ.decompress(limiter.shape(dataSocket.getInputStream())));
+        } else if (plainChannel(dataSocket) != null) {
+            dataChannel = limiter.shape(plainChannel(dataSocket));
+        } else {
+            dataChannel = limiter.shape(Channels.newChannel(dataSocket.getInputStream()));
+        }
+
+        ByteBuffer buffer = STOR_BUFFERS.acquire();
+        long total = 0;
+        try (WritableByteChannel target = storage.openWrite(filePath, offset)) {
+            FileChannel fileChannel = target instanceof FileChannel channel ? channel : null;
+            boolean preallocated = fileChannel != null && allocate > offset;
+            if (preallocated) {
+                // Extend the file to the announced size up front; it is cut back to the real size below
+                fileChannel.write(ByteBuffer.allocate(1), allocate - 1);
+            }
+
+            try {
+                long sinceSync = 0;
+                boolean eof = false;
+                while (!eof) {
+                    // Fill the whole buffer before writing, so each write is one large sequential block
+                    while (buffer.hasRemaining()) {
+                        if (dataChannel.read(buffer) == -1) {
+                            eof = true;
+                            break;
+                        }
+                    }
+
+                    buffer.flip();
+                    for (DigestCache.Hasher hasher : hashers) {
+                        hasher.update(buffer.duplicate());
+                    }
+                    while (buffer.hasRemaining()) {
+                        int written = target.write(buffer);
+                        total += written;
+                        sinceSync += written;
+                    }
+                    buffer.clear();
+
+                    if (fileChannel != null && FSYNC_INTERVAL > 0 && sinceSync >= FSYNC_INTERVAL && "every".equals(ServerConfig.STOR_FSYNC)) {
+                        fileChannel.force(false);
+                        sinceSync = 0;
+                    }
+                }
+            } finally {
+                if (preallocated) {
+                    // Drop the preallocated space past the new end, also when the upload failed,
+                    // so SIZE never counts the padding as received
+                    fileChannel.truncate(offset + total);
+                }
+            }
+
+            if (fileChannel != null && !"none".equals(ServerConfig.STOR_FSYNC)) {
+                fileChannel.force(false);
+            }
+        } finally {
+            STOR_BUFFERS.release(buffer);
+            if (transferMode == 'Z') {
+                dataChannel.close();
+            }
+        }
+
+        ServerMetrics.getInstance().recordTransfer("STOR", total, System.nanoTime() - start);
+        return total;
+    }
+
+    // A TLS socket wraps a plain one whose channel must not be written to directly
+    private static SocketChannel plainChannel(Socket dataSocket) {
+        return dataSocket instanceof SSLSocket ? null : dataSocket.getChannel();
+    }
+
+    // TYPE A: turn bare LF line endings into CRLF
+    private static class AsciiOutputStream extends FilterOutputStream {
+        private int previous = -1;
+
+        AsciiOutputStream(OutputStream out) {
+            super(new BufferedOutputStream(out, BUFFER_SIZE));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n' && previous != '\r') {
+                out.write('\r');
+            }
+            out.write(b);
+            previous = b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // Copy runs between line breaks in one go instead of byte by byte
+            int runStart = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n' && previous != '\r') {
+                    out.write(b, runStart, i - runStart);
+                    out.write('\r');
+                    runStart = i;
+                }
+                previous = b[i];
+            }
+            out.write(b, runStart, off + len - runStart);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.example.ftpserver;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * File digests for HASH, XCRC, XMD5 and XSHA256. Files are read through
+ * memory-mapped windows, and every result is remembered under the file's
+ * path, size and modification time, so asking again about an unchanged
+ * file costs a stat instead of a full read. STOR computes the configured
+ * digests while it writes, so a fresh upload can be verified at once.
+ * <p>
+ * Results are appended to {@code ftp.digest.cacheFile} and read back at
+ * startup, dropping entries whose file has changed since. Once the file
+ * holds about twice as many lines as there are live entries it is rewritten
+ * with just those, so a long-running server does not grow it without end.
+ */
+public class DigestCache {
+    public static final List<String> ALGORITHMS = List.of("SHA-1", "SHA-256", "SHA-512", "MD5", "CRC32");
+
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    // Stale lines tolerated before compacting even a small store
+    private static final int COMPACT_MIN_LINES = 1024;
+    private static final DigestCache INSTANCE = new DigestCache(ServerConfig.DIGEST_CACHE_FILE);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Path storeFile;
+    private BufferedWriter store; // guarded by "this"
+    private long storedLines; // guarded by "this"
+
+    private record Entry(long size, long modified, String digest) {
+    }
+
+    public DigestCache(String storeFile) {
+        this.storeFile = storeFile == null || storeFile.isEmpty() ? null : Path.of(storeFile);
+        if (this.storeFile != null) {
+            load();
+        }
+    }
+
+    public static DigestCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the canonical name of {@code name} (e.g. "sha256" gives "SHA-256"), or null if unsupported
+     */
+    public static String algorithm(String name) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        for (String algorithm : ALGORITHMS) {
+            if (algorithm.equals(upper) || algorithm.replace("-", "").equals(upper)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the hex digest of a regular file, from the cache when the file
+     * has not changed since it was last hashed.
+     */
+    public String digest(Path file, String algorithm) throws IOException {
+        String key = key(file, algorithm);
+        BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+        Entry cached = entries.get(key);
+        if (cached != null && matches(cached, before)) {
+            return cached.digest;
+        }
+
+        Hasher hasher = new Hasher(algorithm);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, size - position));
+                hasher.update(window);
+            }
+        }
+        String digest = hasher.hex();
+
+        // Only remember the result if nobody wrote to the file while it was read
+        BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+        if (after.size() == before.size() && modified(after) == modified(before)) {
+            put(key, new Entry(after.size(), modified(after), digest));
+        }
+        return digest;
+    }
+
+    /**
+     * Hex digest of everything left in {@code channel}, for files that are
+     * not on the local disk and so are neither mapped nor cached.
+     */
+    public static String compute(ReadableByteChannel channel, String algorithm) throws IOException {
+        Hasher hasher = new Hasher(algorithm);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            hasher.update(buffer);
+            buffer.clear();
+        }
+        return hasher.hex();
+    }
+
+    /**
+     * Hashers for the digests STOR computes while writing; empty if that is switched off.
+     */
+    public List<Hasher> storeHashers() {
+        List<Hasher> hashers = new ArrayList<>();
+        for (String name : ServerConfig.DIGEST_ON_STORE.split(",")) {
+            String algorithm = algorithm(name.trim());
+            if (algorithm != null) {
+                hashers.add(new Hasher(algorithm));
+            }
+        }
+        return hashers;
+    }
+
+    // Called once the uploaded file is complete and closed
+    public void record(Path file, List<Hasher> hashers) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        for (Hasher hasher : hashers) {
+            put(key(file, hasher.algorithm), new Entry(attributes.size(), modified(attributes), hasher.hex()));
+        }
+    }
+
+    public void invalidate(Path file) {
+        for (String algorithm : ALGORITHMS) {
+            entries.remove(key(file, algorithm));
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static String key(Path file, String algorithm) {
+        return algorithm + "\t" + file.toAbsolutePath().normalize();
+    }
+
+    private static boolean matches(Entry entry, BasicFileAttributes attributes) {
+        return entry.size == attributes.size() && entry.modified == modified(attributes);
+    }
+
+    private static long modified(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private void put(String key, Entry entry) {
+        entries.put(key, entry);
+        if (storeFile == null || key.indexOf('\n') >= 0) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (store == null) {
+                    store = Files.newBufferedWriter(storeFile, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                store.write(line(key, entry));
+                store.flush();
+                if (++storedLines > Math.max(2L * entries.size(), COMPACT_MIN_LINES)) {
+                    store.close();
+                    store = null;
+                    compact();
+                }
+            } catch (IOException e) {
+                System.err.println("Digest Cache Error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String line(String key, Entry entry) {
+        return entry.size + "\t" + entry.modified + "\t" + entry.digest + "\t" + key + "\n";
+    }
+
+    // Replaces the store with one line per live entry; callers hold "this" and have closed the writer
+    private void compact() throws IOException {
+        StringBuilder compacted = new StringBuilder();
+        long lines = 0;
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getKey().indexOf('\n') < 0) {
+                compacted.append(line(e.getKey(), e.getValue()));
+                lines++;
+            }
+        }
+        Path temp = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+        Files.writeString(temp, compacted, StandardCharsets.UTF_8);
+        Files.move(temp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        storedLines = lines;
+    }
+
+    // Reads the store back, keeps the newest entry per file that still matches, and rewrites it compacted
+    private void load() {
+        if (!Files.exists(storeFile)) {
+            return;
+        }
+        Map<String, Entry> loaded = new LinkedHashMap<>();
+        try {
+            for (String line : Files.readAllLines(storeFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length < 5) {
+                    continue;
+                }
+                loaded.put(fields[3] + "\t" + fields[4],
+                        new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+            }
+
+            for (Map.Entry<String, Entry> e : loaded.entrySet()) {
+                Path file = Path.of(e.getKey().substring(e.getKey().indexOf('\t') + 1));
+                try {
+                    if (!matches(e.getValue(), Files.readAttributes(file, BasicFileAttributes.class))) {
+                        continue;
+                    }
+                } catch (IOException gone) {
+                    continue;
+                }
+                entries.put(e.getKey(), e.getValue());
+            }
+            synchronized (this) {
+                compact();
+            }
+            System.out.println("Loaded " + entries.size() + " cached digests.");
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Digest Cache Error: cannot load " + storeFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * One running digest, either a MessageDigest or CRC32.
+     */
+    public static class Hasher {
+        private final String algorithm;
+        private final MessageDigest digest;
+        private final CRC32 crc;
+
+        public Hasher(String algorithm) {
+            this.algorithm = algorithm;
+            if (algorithm.equals("CRC32")) {
+                this.digest = null;
+                this.crc = new CRC32();
+            } else {
+                try {
+                    this.digest = MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException(algorithm, e);
+                }
+                this.crc = null;
+            }
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        // Consumes the buffer's remaining bytes
+        public void update(ByteBuffer buffer) {
+            if (crc != null) {
+                crc.update(buffer);
+            } else {
+                digest.update(buffer);
+            }
+        }
+
+        public String hex() {
+            if (crc != null) {
+                return String.format("%08x", crc.getValue());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+}
@@ -8,27 +8,57 @@ public class FTPResponse {
     public static final String LOGIN_INVALID = "430 Invalid username/password.";
     public static final String BAD_SEQUENCE = "503 Bad sequence of commands.";
     public static final String QUIT_SUCCESS = "221 Service closing control connection.";
+    public static final String TOO_MANY_USERS = "421 Too many users, service not available.";
+    public static final String TOO_MANY_FROM_HOST = "421 Too many connections from your address.";
 
 
     public static final String NEED_LOGIN = "530 Not logged in.";
+    public static final String AUTH_TLS_SUCCESS = "234 AUTH TLS successful.";
+    public static final String TLS_NOT_AVAILABLE = "431 TLS is not available.";
+    public static final String PBSZ_SUCCESS = "200 PBSZ=0";
+    public static final String PROT_P_SUCCESS = "200 Protection level set to Private.";
+    public static final String PROT_C_SUCCESS = "200 Protection level set to Clear.";
+    public static final String PROT_NOT_SUPPORTED = "536 Protection level not supported.";
+    public static final String USER_SESSION_LIMIT = "530 Too many sessions for this user.";
 
 
     public static final String SYSTEM_INFO = "215 UNIX Type: L8";
+    public static final String FEATURES_BEGIN = "211-Features:";
+    public static final String FEATURES_END = "211 End";
+    public static final String STATS_BEGIN = "211-Server statistics:";
+    public static final String STATS_END = "211 End";
+    public static final String MLST_BEGIN = "250-Listing %s";
+    public static final String MLST_END = "250 End";
 
 
     public static final String COMMAND_OKAY = "200 Command okay.";
+    public static final String NOOP_SUCCESS = "200 NOOP ok.";
     public static final String TYPE_I_SUCCESS = "200 Switching to Binary mode.";
     public static final String TYPE_A_SUCCESS = "200 Switching to ASCII mode.";
+    public static final String MODE_S_SUCCESS = "200 Mode set to S.";
+    public static final String MODE_Z_SUCCESS = "200 Mode set to Z.";
+    public static final String ALLO_SUCCESS = "200 ALLO command successful.";
     public static final String DELETE_SUCCESS = "250 Delete success.";
     public static final String CLOSING_DATA_CONN = "226 Closing data connection. Requested file action successful.";
     public static final String OPEN_DATA_CONN  = "150 Opening data connection.";
+    public static final String RESTART_MARKER = "350 Restarting at %d. Send STORE or RETRIEVE to initiate transfer.";
+    public static final String FILE_SIZE = "213 %d";
+    public static final String FILE_MODIFIED = "213 %s";
+    public static final String FILE_HASH = "213 %s 0-%d %s %s";
+    public static final String FILE_CHECKSUM = "250 %s";
+    public static final String OPTS_SUCCESS = "200 %s";
+    public static final String RATE_INFO = "200 Rates in bytes/s (0 = unlimited): global=%d user=%d session=%d";
+    public static final String RATE_SET = "200 %s rate set to %d bytes/s.";
 
+    public static final String LINE_TOO_LONG = "500 Command line too long.";
     public static final String NOT_IMPLEMENTED = "502 Command not implemented.";
     public static final String FILE_UNAVAILABLE = "550 File unavailable.";
+    public static final String PERMISSION_DENIED = "550 Permission denied.";
     public static final String CANT_OPEN_DATA = "425 Can't open data connection.";
     public static final String INTERNAL_ERROR = "451 Internal server error.";
     public static final String INVALID_PARAMETER = "504 Command not implemented for that parameter.";
     public static final String SYNTAX_ERROR = "501 Syntax error in parameters or arguments.";
+    public static final String INVALID_RESTART = "554 Requested action not taken: invalid REST parameter.";
 
 
     public static final String ENTERING_PASV = "227 Entering Passive Mode (%s,%d,%d).";
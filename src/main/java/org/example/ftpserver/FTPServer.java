@@ -1,45 +1,111 @@
 package org.example.ftpserver;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 
 public class FTPServer {
-    private static final int PORT = 1234;
-    private List<Account> accounts;
+    private final int port;
+    private final AccountStore accounts;
+    private final SessionExecutor sessionExecutor;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean stopped;
 
     public FTPServer() {
-        accounts = new ArrayList<>();
-        loadAccounts("database.txt");
+        this(SessionExecutor.fromConfig());
     }
 
-    private void loadAccounts(String filePath) {
-        InputStream is = getClass().getClassLoader().getResourceAsStream(filePath);
-        accounts  = Utils.readAccountsFromFile(is);
-        System.out.println("Loaded " + accounts.size() + " accounts.");
+    public FTPServer(SessionExecutor sessionExecutor) {
+        this(ServerConfig.PORT, AccountStore.load("database.txt"), sessionExecutor);
     }
 
+    // For running the server inside another program, e.g. benchmarks and load tests
+    public FTPServer(int port, AccountStore accounts, SessionExecutor sessionExecutor) {
+        this.port = port;
+        this.accounts = accounts;
+        this.sessionExecutor = sessionExecutor;
+    }
+
+    /**
+     * Accepts connections until {@link #stop()} is called or the listening
+     * socket fails.
+     */
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("FTP Server started on port " + PORT);
+        try (ServerSocket serverSocket = new ServerSocket(port, ServerConfig.ACCEPT_BACKLOG)) {
+            this.serverSocket = serverSocket;
+            if (stopped) {
+                return;
+            }
+            System.out.println("FTP Server started on port " + serverSocket.getLocalPort()
+                    + " (max " + sessionExecutor.getMaxSessions() + " sessions)");
 
-            while (true) {
+            while (!stopped) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("Accepted connection from " + clientSocket.getInetAddress());
+                SocketTuning.tuneControl(clientSocket);
+
+                SessionRegistry.Session session = SessionRegistry.getInstance().open(clientSocket.getInetAddress());
+                if (session == null) {
+                    reject(clientSocket, FTPResponse.TOO_MANY_FROM_HOST);
+                    continue;
+                }
+
+                ConnectionHandler handler = new ConnectionHandler(clientSocket, accounts, session);
+                if (!sessionExecutor.submit(handler)) {
+                    SessionRegistry.getInstance().close(session);
+                    reject(clientSocket, FTPResponse.TOO_MANY_USERS);
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                System.err.println("Server Error: " + e.getMessage());
+            }
+        } finally {
+            sessionExecutor.shutdown();
+        }
+    }
 
-                ConnectionHandler handler = new ConnectionHandler(clientSocket, accounts);
-                Thread thread = new Thread(handler);
-                thread.start();
+    /**
+     * Closes the listening socket and interrupts the running sessions.
+     */
+    public void stop() {
+        stopped = true;
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Server Error: " + e.getMessage());
             }
+        }
+    }
+
+    // The port being listened on, or -1 before the server has started
+    public int getLocalPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+
+    // Answer 421 and drop a client the server has no room for
+    private void reject(Socket clientSocket, String reply) {
+        System.err.println("Rejected connection from " + clientSocket.getInetAddress() + ": " + reply);
+        try (Socket socket = clientSocket) {
+            OutputStream out = socket.getOutputStream();
+            out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
         } catch (IOException e) {
-            System.err.println("Server Error: " + e.getMessage());
+            System.err.println("Reject Error: " + e.getMessage());
         }
     }
 
     public static void main(String[] args) {
+        ServerMetrics.getInstance().start(ServerConfig.METRICS_PORT);
+        if ("nio".equalsIgnoreCase(ServerConfig.ENGINE)) {
+            new NioFTPServer(AccountStore.load("database.txt")).start();
+            return;
+        }
         FTPServer server = new FTPServer();
         server.start();
     }
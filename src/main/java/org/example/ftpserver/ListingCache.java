@@ -0,0 +1,212 @@
+package org.example.ftpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server-wide cache of rendered LIST output, keyed by directory. Listings
+ * are recorded while they stream to a client, so a miss costs no extra pass.
+ * <p>
+ * Entries are dropped when a WatchService reports a change in the
+ * directory, when this server changes it (STOR, DELE, MKD, RMD), or when
+ * the cache grows past its byte budget, least recently used first.
+ */
+public final class ListingCache {
+    private static final ListingCache INSTANCE =
+            new ListingCache(ServerConfig.LIST_CACHE_BYTES, ServerConfig.LIST_CACHE_MAX_ENTRY);
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final LinkedHashMap<Path, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private long totalBytes;
+    private long invalidations;
+    private WatchService watchService;
+
+    public ListingCache(long maxBytes, int maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread.ofPlatform().name("ftp-list-watcher").daemon().start(this::watch);
+        } catch (IOException e) {
+            // Without a watcher only the server's own changes invalidate, so don't cache at all
+            System.err.println("ListingCache Error: " + e.getMessage());
+            watchService = null;
+        }
+    }
+
+    public static ListingCache getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized byte[] get(Path dir) {
+        return entries.get(dir);
+    }
+
+    /**
+     * Starts recording a listing of {@code dir} that is about to be streamed.
+     * Call this before reading the directory, so a change made while the
+     * listing is produced is not missed.
+     */
+    public Capture capture(Path dir) {
+        synchronized (this) {
+            return new Capture(dir, register(dir), invalidations);
+        }
+    }
+
+    private void commit(Capture capture, byte[] listing) {
+        synchronized (this) {
+            // Something was invalidated meanwhile, possibly this directory: don't keep it
+            if (invalidations != capture.invalidationsBefore || !capture.key.isValid()) {
+                if (!entries.containsKey(capture.dir)) {
+                    capture.key.cancel();
+                }
+                return;
+            }
+            byte[] previous = entries.put(capture.dir, listing);
+            if (previous != null) {
+                totalBytes -= previous.length;
+            }
+            totalBytes += listing.length;
+            watchKeys.put(capture.dir, capture.key);
+            evict();
+        }
+    }
+
+    private WatchKey register(Path dir) {
+        if (watchService == null) {
+            return null;
+        }
+        try {
+            return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("ListingCache Error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized void invalidate(Path dir) {
+        invalidations++;
+        byte[] removed = entries.remove(dir);
+        if (removed != null) {
+            totalBytes -= removed.length;
+        }
+        WatchKey key = watchKeys.remove(dir);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    // Drops the listing a change to this file or directory shows up in
+    public void invalidateParentOf(Path path) {
+        Path parent = path.getParent();
+        if (parent != null) {
+            invalidate(parent);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, byte[]>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Path, byte[]> eldest = it.next();
+            totalBytes -= eldest.getValue().length;
+            it.remove();
+            WatchKey key = watchKeys.remove(eldest.getKey());
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            // The key is not reset; the next miss on this directory registers it again
+            key.pollEvents();
+            key.cancel();
+            invalidate((Path) key.watchable());
+        }
+    }
+
+    /**
+     * Copy of a listing kept while it streams to the client. It gives up,
+     * and nothing is cached, once the listing outgrows the per-entry limit.
+     */
+    public class Capture {
+        private final Path dir;
+        private final WatchKey key;
+        private final long invalidationsBefore;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        private Capture(Path dir, WatchKey key, long invalidationsBefore) {
+            this.dir = dir;
+            this.key = key;
+            this.invalidationsBefore = invalidationsBefore;
+            if (key == null) {
+                copy = null;
+            }
+        }
+
+        // Wraps the data connection so everything written to it is recorded as well
+        public OutputStream tee(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    record(b, off, len);
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+            };
+        }
+
+        private void record(byte[] b, int off, int len) {
+            if (copy == null) {
+                return;
+            }
+            if (copy.size() + len > maxEntryBytes) {
+                copy = null;
+                return;
+            }
+            copy.write(b, off, len);
+        }
+
+        // Caches the recorded listing; call only after the whole listing was written
+        public void commit() {
+            if (copy != null) {
+                ListingCache.this.commit(this, copy.toByteArray());
+            } else if (key != null) {
+                synchronized (ListingCache.this) {
+                    if (!entries.containsKey(dir)) {
+                        key.cancel();
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+}
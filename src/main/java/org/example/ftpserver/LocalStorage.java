@@ -0,0 +1,175 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Storage on the local disk, under {@code ftp.storage.root}/&lt;rootFolder&gt;.
+ * The root is resolved once, when the session logs in, and virtual paths
+ * are mapped onto it without touching the disk.
+ * <p>
+ * Reads and writes hand out FileChannels, so RETR can still use
+ * transferTo and STOR can preallocate and fsync.
+ */
+public class LocalStorage implements Storage {
+    private static final Path BASE = Paths.get(ServerConfig.STORAGE_ROOT).toAbsolutePath().normalize();
+
+    private final Path root;
+    private final boolean posix;
+
+    public LocalStorage(Path root) {
+        this.root = root;
+        this.posix = Files.getFileAttributeView(root, PosixFileAttributeView.class) != null;
+    }
+
+    /**
+     * @return the storage for {@code rootFolder}, or null if it is not an existing directory
+     */
+    public static LocalStorage forRoot(String rootFolder) {
+        Path root = BASE.resolve(rootFolder).normalize();
+        if (!Files.isDirectory(root)) {
+            return null;
+        }
+        return new LocalStorage(root);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public Path localPath(String path) {
+        return path.equals("/") ? root : root.resolve(path.substring(1));
+    }
+
+    @Override
+    public FileInfo stat(String path) throws IOException {
+        try {
+            return read(localPath(path), path.equals("/") ? "" : path.substring(path.lastIndexOf('/') + 1));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // One attribute read per entry; on POSIX that includes the permission bits and owner
+    private FileInfo read(Path file, String name) throws IOException {
+        if (posix) {
+            PosixFileAttributes attrs = Files.readAttributes(file, PosixFileAttributes.class);
+            Set<PosixFilePermission> perms = attrs.permissions();
+            return new FileInfo(name, attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                    perms.contains(PosixFilePermission.OWNER_READ),
+                    perms.contains(PosixFilePermission.OWNER_WRITE),
+                    perms.contains(PosixFilePermission.OWNER_EXECUTE),
+                    attrs.owner().getName());
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return new FileInfo(name, attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                Files.isReadable(file), Files.isWritable(file), Files.isExecutable(file), owner(file));
+    }
+
+    private static String owner(Path file) {
+        try {
+            return Files.getOwner(file).getName();
+        } catch (IOException | UnsupportedOperationException e) {
+            return "unknown";
+        }
+    }
+
+    @Override
+    public DirectoryStream<FileInfo> list(String dir, Predicate<String> nameFilter) throws IOException {
+        DirectoryStream<Path> entries = Files.newDirectoryStream(localPath(dir), entry -> {
+            String name = entry.getFileName().toString();
+            return !name.startsWith(".") && (nameFilter == null || nameFilter.test(name));
+        });
+        return new DirectoryStream<>() {
+            @Override
+            public Iterator<FileInfo> iterator() {
+                Iterator<Path> paths = entries.iterator();
+                return new Iterator<>() {
+                    private FileInfo next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && paths.hasNext()) {
+                            Path entry = paths.next();
+                            try {
+                                next = read(entry, entry.getFileName().toString());
+                            } catch (NoSuchFileException e) {
+                                // Deleted between the listing and the stat
+                            } catch (IOException e) {
+                                throw new DirectoryIteratorException(e);
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public FileInfo next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        FileInfo info = next;
+                        next = null;
+                        return info;
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                entries.close();
+            }
+        };
+    }
+
+    @Override
+    public ReadableByteChannel openRead(String path, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(localPath(path), StandardOpenOption.READ);
+        try {
+            return channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public WritableByteChannel openWrite(String path, long offset) throws IOException {
+        StandardOpenOption existing = offset > 0 ? StandardOpenOption.WRITE : StandardOpenOption.TRUNCATE_EXISTING;
+        FileChannel channel = FileChannel.open(localPath(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, existing);
+        try {
+            if (offset > 0) {
+                channel.truncate(offset);
+            }
+            return channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        if (path.equals("/")) {
+            return false;
+        }
+        return Files.deleteIfExists(localPath(path));
+    }
+
+    @Override
+    public void mkdirs(String path) throws IOException {
+        Files.createDirectories(localPath(path));
+    }
+}
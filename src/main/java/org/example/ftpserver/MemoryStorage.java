@@ -0,0 +1,376 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Storage kept in memory, one tree per root folder shared by every session
+ * of the accounts using it, and gone when the server stops. Meant for
+ * benchmarks and load tests that should measure the protocol, not the disk.
+ * <p>
+ * File content is a list of fixed-size chunks, off the Java heap unless
+ * {@code ftp.storage.memory.offHeap} is false. A write builds new content
+ * and publishes it when its channel is closed, so readers always see a
+ * whole version; a resumed upload shares the full chunks before its offset
+ * with the previous version instead of copying them. The content of all
+ * roots together is limited to {@code ftp.storage.memory.maxBytes}.
+ */
+public class MemoryStorage implements Storage {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String OWNER = "ftp";
+    private static final Map<String, MemoryStorage> ROOTS = new ConcurrentHashMap<>();
+    private static final AtomicLong usedBytes = new AtomicLong();
+
+    // Structural changes (create, delete, publish) take the storage's lock; lookups do not
+    private final Node root = new Node("", true);
+
+    public static MemoryStorage forRoot(String rootFolder) {
+        return ROOTS.computeIfAbsent(rootFolder, folder -> new MemoryStorage());
+    }
+
+    // Bytes of file content held by all roots together
+    public static long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private static final class Node {
+        final String name;
+        // Entries by name, null for a file
+        final ConcurrentSkipListMap<String, Node> children;
+        volatile Content content = Content.EMPTY;
+        volatile long modifiedMillis = System.currentTimeMillis();
+        boolean deleted; // guarded by the storage's lock
+
+        Node(String name, boolean directory) {
+            this.name = name;
+            this.children = directory ? new ConcurrentSkipListMap<>() : null;
+        }
+    }
+
+    // Never changed once published; every chunk but the last is CHUNK_SIZE long
+    private record Content(ByteBuffer[] chunks, long length) {
+        static final Content EMPTY = new Content(new ByteBuffer[0], 0);
+    }
+
+    @Override
+    public Path localPath(String path) {
+        return null;
+    }
+
+    @Override
+    public FileInfo stat(String path) {
+        Node node = find(path);
+        return node == null ? null : info(node);
+    }
+
+    private static FileInfo info(Node node) {
+        boolean directory = node.children != null;
+        return new FileInfo(node.name, directory, directory ? 0 : node.content.length(), node.modifiedMillis,
+                true, true, directory, OWNER);
+    }
+
+    @Override
+    public DirectoryStream<FileInfo> list(String dir, Predicate<String> nameFilter) throws IOException {
+        Node node = find(dir);
+        if (node == null) {
+            throw new NoSuchFileException(dir);
+        }
+        if (node.children == null) {
+            throw new NotDirectoryException(dir);
+        }
+        Iterator<FileInfo> entries = node.children.values().stream()
+                .filter(child -> !child.name.startsWith(".") && (nameFilter == null || nameFilter.test(child.name)))
+                .map(MemoryStorage::info)
+                .iterator();
+        return new DirectoryStream<>() {
+            @Override
+            public Iterator<FileInfo> iterator() {
+                return entries;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public ReadableByteChannel openRead(String path, long offset) throws IOException {
+        return new ContentChannel(file(find(path), path).content, offset);
+    }
+
+    @Override
+    public WritableByteChannel openWrite(String path, long offset) throws IOException {
+        Node node;
+        synchronized (this) {
+            Node parent = find(parentOf(path));
+            if (parent == null || parent.children == null) {
+                throw new NoSuchFileException(path);
+            }
+            String name = nameOf(path);
+            node = parent.children.get(name);
+            if (node == null) {
+                node = new Node(name, false);
+                parent.children.put(name, node);
+                parent.modifiedMillis = node.modifiedMillis;
+            }
+        }
+        return new WriteChannel(file(node, path), offset);
+    }
+
+    @Override
+    public synchronized boolean delete(String path) throws IOException {
+        Node parent = find(parentOf(path));
+        if (path.equals("/") || parent == null || parent.children == null) {
+            return false;
+        }
+        Node node = parent.children.get(nameOf(path));
+        if (node == null) {
+            return false;
+        }
+        if (node.children != null && !node.children.isEmpty()) {
+            throw new DirectoryNotEmptyException(path);
+        }
+        parent.children.remove(node.name);
+        parent.modifiedMillis = System.currentTimeMillis();
+        node.deleted = true;
+        usedBytes.addAndGet(-node.content.length());
+        return true;
+    }
+
+    @Override
+    public synchronized void mkdirs(String path) throws IOException {
+        Node node = root;
+        for (String name : segments(path)) {
+            Node child = node.children.get(name);
+            if (child == null) {
+                child = new Node(name, true);
+                node.children.put(name, child);
+                node.modifiedMillis = child.modifiedMillis;
+            } else if (child.children == null) {
+                throw new FileAlreadyExistsException(path);
+            }
+            node = child;
+        }
+    }
+
+    private Node find(String path) {
+        Node node = root;
+        for (String name : segments(path)) {
+            if (node.children == null) {
+                return null;
+            }
+            node = node.children.get(name);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static Node file(Node node, String path) throws IOException {
+        if (node == null) {
+            throw new NoSuchFileException(path);
+        }
+        if (node.children != null) {
+            throw new FileSystemException(path, null, "Is a directory");
+        }
+        return node;
+    }
+
+    private static String[] segments(String path) {
+        return path.equals("/") ? new String[0] : path.substring(1).split("/");
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static ByteBuffer allocate(int capacity) throws IOException {
+        try {
+            return ServerConfig.STORAGE_MEMORY_OFF_HEAP ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        } catch (OutOfMemoryError e) {
+            throw new IOException("Memory storage: " + e.getMessage(), e);
+        }
+    }
+
+    // Chunk and position within it for a byte offset, cut to at most max bytes
+    private static ByteBuffer slice(Content content, long position, long max) {
+        ByteBuffer chunk = content.chunks()[(int) (position / CHUNK_SIZE)].duplicate();
+        int from = (int) (position % CHUNK_SIZE);
+        chunk.position(from);
+        chunk.limit(from + (int) Math.min(chunk.limit() - from, max));
+        return chunk;
+    }
+
+    /**
+     * Reads one published version of a file. Besides read(), it can write
+     * its chunks straight to another channel, which saves RETR a copy.
+     */
+    public static class ContentChannel implements ReadableByteChannel {
+        private final Content content;
+        private long position;
+        private boolean open = true;
+
+        private ContentChannel(Content content, long position) {
+            this.content = content;
+            this.position = position;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= content.length()) {
+                return -1;
+            }
+            int total = 0;
+            while (dst.hasRemaining() && position < content.length()) {
+                ByteBuffer chunk = slice(content, position, dst.remaining());
+                position += chunk.remaining();
+                total += chunk.remaining();
+                dst.put(chunk);
+            }
+            return total;
+        }
+
+        /**
+         * Writes up to {@code max} bytes from the current position to {@code target}.
+         *
+         * @return bytes written, 0 at the end of the file
+         */
+        public long transferTo(WritableByteChannel target, long max) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            long sent = 0;
+            while (sent < max && position < content.length()) {
+                ByteBuffer chunk = slice(content, position, max - sent);
+                while (chunk.hasRemaining()) {
+                    int written = target.write(chunk);
+                    position += written;
+                    sent += written;
+                }
+            }
+            return sent;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    // Builds the new content of a file; it replaces the old one on close
+    private class WriteChannel implements WritableByteChannel {
+        private final Node node;
+        private final long offset;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private ByteBuffer current;
+        // Bytes added to usedBytes by this channel so far
+        private long reserved;
+        private boolean open = true;
+
+        WriteChannel(Node node, long offset) throws IOException {
+            this.node = node;
+            Content previous = node.content;
+            this.offset = Math.min(offset, previous.length());
+            // Full chunks before the offset are shared, the rest of the kept part is copied
+            int shared = (int) (this.offset / CHUNK_SIZE);
+            for (int i = 0; i < shared; i++) {
+                chunks.add(previous.chunks()[i]);
+            }
+            int partial = (int) (this.offset % CHUNK_SIZE);
+            if (partial > 0) {
+                current = allocate(CHUNK_SIZE);
+                current.put(slice(previous, (long) shared * CHUNK_SIZE, partial));
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int total = 0;
+            while (src.hasRemaining()) {
+                if (current == null || !current.hasRemaining()) {
+                    if (current != null) {
+                        chunks.add(current.flip());
+                    }
+                    current = allocate(CHUNK_SIZE);
+                }
+                int n = Math.min(src.remaining(), current.remaining());
+                if (usedBytes.addAndGet(n) > ServerConfig.STORAGE_MEMORY_MAX_BYTES) {
+                    usedBytes.addAndGet(-n);
+                    throw new IOException("Memory storage is full");
+                }
+                reserved += n;
+                int limit = src.limit();
+                src.limit(src.position() + n);
+                current.put(src);
+                src.limit(limit);
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (current != null && current.position() > 0) {
+                current.flip();
+                if (current.remaining() < CHUNK_SIZE) {
+                    // The last chunk is kept at its real size
+                    ByteBuffer trimmed = allocate(current.remaining());
+                    trimmed.put(current).flip();
+                    current = trimmed;
+                }
+                chunks.add(current);
+            }
+            Content content = new Content(chunks.toArray(new ByteBuffer[0]), offset + reserved);
+            synchronized (MemoryStorage.this) {
+                if (node.deleted) {
+                    // Deleted while it was being written; nothing to keep
+                    usedBytes.addAndGet(-reserved);
+                    return;
+                }
+                Content replaced = node.content;
+                node.content = content;
+                node.modifiedMillis = System.currentTimeMillis();
+                usedBytes.addAndGet(offset - replaced.length());
+            }
+        }
+    }
+}
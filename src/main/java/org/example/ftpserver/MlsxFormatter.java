@@ -0,0 +1,175 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Renders RFC 3659 fact lines ("type=file;size=12;modify=20240101120000;perm=rw; name")
+ * for MLSD and MLST. Lines are written as bytes into one reusable buffer,
+ * which is flushed to the output whenever it fills up, so memory use does not
+ * grow with the directory and no String is built per entry.
+ */
+public class MlsxFormatter {
+    public static final String FACTS = "type*;size*;modify*;perm*;";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+
+    // UTC date digits (YYYYMMDD) of the last day formatted; entries of one directory tend to share days
+    private long cachedEpochDay = Long.MIN_VALUE;
+    private final byte[] cachedDate = new byte[8];
+
+    /**
+     * Appends the fact line for {@code entry}, named {@code name}, with the
+     * leading space used in MLST replies if {@code indent} is set.
+     */
+    public void append(Storage.FileInfo entry, String name, boolean indent) {
+        ensureCapacity(lineCapacity(name));
+        if (indent) {
+            put((byte) ' ');
+        }
+        putAscii(entry.directory() ? "type=dir;" : "type=file;");
+        if (!entry.directory()) {
+            putAscii("size=");
+            putLong(entry.size());
+            put((byte) ';');
+        }
+        putAscii("modify=");
+        putTimestamp(entry.modifiedMillis());
+        putAscii(";perm=");
+        putPerm(entry);
+        putAscii("; ");
+        putName(name);
+        put((byte) '\r');
+        put((byte) '\n');
+    }
+
+    /**
+     * Same as {@link #append(Storage.FileInfo, String, boolean)}, but first
+     * writes the buffer to {@code out} if the line would not fit behind it.
+     */
+    public void append(Storage.FileInfo entry, String name, boolean indent, OutputStream out) throws IOException {
+        if (length + lineCapacity(name) > BUFFER_SIZE) {
+            flushTo(out);
+        }
+        append(entry, name, indent);
+    }
+
+    // Upper bound for one line: the facts, and up to 3 UTF-8 bytes per name char
+    private static int lineCapacity(String name) {
+        return 128 + name.length() * 3;
+    }
+
+    public void flushTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    // Writes the buffer out once it is nearly full, so a directory of any size streams in bounded chunks
+    public void flushIfFull(OutputStream out) throws IOException {
+        if (length > BUFFER_SIZE - 1024) {
+            flushTo(out);
+        }
+    }
+
+    // Empties the buffer into a String, for replies sent on the control connection
+    public String takeString() {
+        String s = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        length = 0;
+        return s;
+    }
+
+    private void putPerm(Storage.FileInfo entry) {
+        if (entry.directory()) {
+            // e: CWD, l: LIST, c: STOR into, m: MKD, p: RMD entries
+            if (entry.executable()) put((byte) 'e');
+            if (entry.readable()) put((byte) 'l');
+            if (entry.writable()) putAscii("cmp");
+        } else {
+            // r: RETR, w: STOR, d: DELE
+            if (entry.readable()) put((byte) 'r');
+            if (entry.writable()) putAscii("wd");
+        }
+    }
+
+    // YYYYMMDDHHMMSS in UTC
+    private void putTimestamp(long millis) {
+        long epochDay = Math.floorDiv(millis, MILLIS_PER_DAY);
+        if (epochDay != cachedEpochDay) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            putDigits(cachedDate, 0, date.getYear(), 4);
+            putDigits(cachedDate, 4, date.getMonthValue(), 2);
+            putDigits(cachedDate, 6, date.getDayOfMonth(), 2);
+            cachedEpochDay = epochDay;
+        }
+        System.arraycopy(cachedDate, 0, buffer, length, 8);
+        length += 8;
+
+        int secondOfDay = (int) (Math.floorMod(millis, MILLIS_PER_DAY) / 1000);
+        putDigits(buffer, length, secondOfDay / 3600, 2);
+        putDigits(buffer, length + 2, secondOfDay / 60 % 60, 2);
+        putDigits(buffer, length + 4, secondOfDay % 60, 2);
+        length += 6;
+    }
+
+    private static void putDigits(byte[] target, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            target[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private void putLong(long value) {
+        if (value == 0) {
+            put((byte) '0');
+            return;
+        }
+        int start = length;
+        while (value > 0) {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        // Digits came out lowest first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    private void putName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                // Non-ASCII names are rare enough to take the encoding detour
+                byte[] utf8 = name.substring(i).getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(utf8.length);
+                System.arraycopy(utf8, 0, buffer, length, utf8.length);
+                length += utf8.length;
+                return;
+            }
+            buffer[length++] = (byte) c;
+        }
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void put(byte b) {
+        buffer[length++] = b;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (length + needed > buffer.length) {
+            throw new IllegalStateException("MLSx line does not fit the buffer, flush first");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * MODE Z: the data connection carries one zlib (deflate) stream per
+ * transfer. Deflaters and Inflaters hold a few hundred KB of native memory
+ * each, so they are pooled and reset between transfers instead of being
+ * created for every RETR, STOR or LIST.
+ */
+public class ModeZ {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "gz", "tgz", "zip", "bz2", "xz", "zst", "lz4", "7z", "rar",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "mov", "avi");
+
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+    private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledDeflaters = new AtomicInteger();
+    private static final AtomicInteger pooledInflaters = new AtomicInteger();
+
+    /**
+     * Level for sending the file {@code name}: files that are already compressed go
+     * out as stored blocks, which keeps the stream valid without spending
+     * CPU on data that will not shrink.
+     */
+    public static int levelFor(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return Deflater.NO_COMPRESSION;
+        }
+        return ServerConfig.MODE_Z_LEVEL;
+    }
+
+    /**
+     * Wraps the data connection's output. Closing the returned stream ends
+     * the deflate stream and gives the Deflater back, but leaves
+     * {@code out} open.
+     */
+    public static OutputStream compress(OutputStream out, int level) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        } else {
+            pooledDeflaters.decrementAndGet();
+            deflater.setLevel(level);
+        }
+        return new PooledDeflaterStream(out, deflater);
+    }
+
+    /**
+     * Wraps the data connection's input. Closing the returned stream gives
+     * the Inflater back, but leaves {@code in} open.
+     */
+    public static InputStream decompress(InputStream in) {
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            pooledInflaters.decrementAndGet();
+        }
+        return new PooledInflaterStream(in, inflater);
+    }
+
+    private static void release(Deflater deflater) {
+        if (pooledDeflaters.incrementAndGet() <= ServerConfig.MODE_Z_POOL) {
+            deflater.reset();
+            DEFLATERS.add(deflater);
+        } else {
+            pooledDeflaters.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    private static void release(Inflater inflater) {
+        if (pooledInflaters.incrementAndGet() <= ServerConfig.MODE_Z_POOL) {
+            inflater.reset();
+            INFLATERS.add(inflater);
+        } else {
+            pooledInflaters.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    private static class PooledDeflaterStream extends DeflaterOutputStream {
+        private boolean closed;
+
+        PooledDeflaterStream(OutputStream out, Deflater deflater) {
+            super(out, deflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                finish();
+                out.flush();
+            } finally {
+                release(def);
+            }
+        }
+    }
+
+    private static class PooledInflaterStream extends InflaterInputStream {
+        private boolean closed;
+
+        PooledInflaterStream(InputStream in, Inflater inflater) {
+            super(in, inflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release(inf);
+        }
+    }
+}
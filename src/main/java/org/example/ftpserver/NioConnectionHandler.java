@@ -0,0 +1,294 @@
+package org.example.ftpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Control session driven by {@link NioFTPServer}. The event loop fills the
+ * input buffer and cuts it into CRLF-terminated commands; the commands of one
+ * session run in order on the worker pool, and replies are queued back to the
+ * event loop when the socket cannot take them right away. The session stops
+ * reading while too many commands wait to run or too many replies wait to be
+ * sent, so a client that pipelines without reading cannot fill the heap.
+ */
+public class NioConnectionHandler extends ConnectionHandler {
+    private static final Command INVALID = new Command("", null);
+    // Queued commands or unsent replies at which reading pauses
+    private static final int MAX_QUEUED = 64;
+    // Held replies beyond this are sent even in the middle of a pipelined burst
+    private static final int MAX_HELD_BYTES = 16 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final Executor workers;
+    private final Runnable onClose;
+    private final ByteBuffer input = ByteBuffer.allocate(ServerConfig.MAX_COMMAND_LENGTH);
+    private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+
+    // Guarded by "this"
+    private final ArrayDeque<Command> commands = new ArrayDeque<>();
+    private final ByteArrayOutputStream heldReplies = new ByteArrayOutputStream();
+    private boolean holding;
+    private boolean draining;
+    private boolean discardingLine;
+    private boolean closeRequested;
+    private boolean closed;
+
+    public NioConnectionHandler(SocketChannel channel, SelectionKey key, AccountStore accounts,
+                                SessionRegistry.Session session, Executor workers, Runnable onClose) {
+        super(channel.socket(), accounts, session, false);
+        this.channel = channel;
+        this.key = key;
+        this.workers = workers;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean canStartTls() {
+        return false;
+    }
+
+    // Called by the event loop
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(input);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read == -1) {
+            closeNow();
+            return;
+        }
+
+        input.flip();
+        int lineStart = input.position();
+        for (int i = lineStart; i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                if (discardingLine) {
+                    discardingLine = false;
+                } else {
+                    int end = (i > lineStart && input.get(i - 1) == '\r') ? i - 1 : i;
+                    enqueue(decode(lineStart, end));
+                }
+                lineStart = i + 1;
+            }
+        }
+        input.position(lineStart);
+        input.compact();
+
+        // A full buffer without a line break can never become a valid command;
+        // answer once, then drop the rest of it up to the next line break
+        if (!input.hasRemaining()) {
+            input.clear();
+            if (!discardingLine) {
+                discardingLine = true;
+                sendMessage(FTPResponse.LINE_TOO_LONG);
+            }
+        }
+    }
+
+    // Called by the event loop
+    void onWritable() {
+        try {
+            if (flushOutput() && isCloseRequested()) {
+                closeNow();
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    private Command decode(int start, int end) {
+        Command command = CommandParser.parse(input.array(), input.arrayOffset() + start, end - start);
+        return command != null ? command : INVALID;
+    }
+
+    private void enqueue(Command command) {
+        synchronized (this) {
+            commands.add(command);
+            updateInterest();
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        workers.execute(this::drain);
+    }
+
+    // Runs on a worker; only one drain per session is active at a time
+    private void drain() {
+        boolean finished = false;
+        try {
+            while (true) {
+                Command command;
+                boolean pipelined;
+                synchronized (this) {
+                    command = commands.poll();
+                    if (command == null || closed || closeRequested) {
+                        draining = false;
+                        finished = true;
+                        return;
+                    }
+                    // Replies leave in one write once the command, or the burst it came in, is done
+                    pipelined = !commands.isEmpty() && heldReplies.size() < MAX_HELD_BYTES;
+                    holding = true;
+                    updateInterest();
+                }
+
+                try {
+                    if (command == INVALID) {
+                        sendMessage(FTPResponse.NOT_IMPLEMENTED);
+                    } else if (CommandHandler.handle(command, this)) {
+                        cleanup();
+                    }
+                } catch (RuntimeException e) {
+                    // A bug in one command must not take the session down with it
+                    System.err.println("Command Error: " + e);
+                    sendMessage(FTPResponse.INTERNAL_ERROR);
+                }
+
+                if (!pipelined) {
+                    flushReplies();
+                }
+            }
+        } finally {
+            if (!finished) {
+                // Anything worse than a RuntimeException; the session cannot go on
+                synchronized (this) {
+                    draining = false;
+                    holding = false;
+                }
+                closeNow();
+            }
+        }
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        ServerMetrics.getInstance().recordReply(message);
+        byte[] bytes = (message + "\r\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            if (holding) {
+                heldReplies.write(bytes, 0, bytes.length);
+                if (!isPreliminary(message)) {
+                    return;
+                }
+                // A 1xx reply announces a transfer the client has to see coming
+                bytes = heldReplies.toByteArray();
+                heldReplies.reset();
+            }
+            output.add(ByteBuffer.wrap(bytes));
+        }
+        writeOutput();
+    }
+
+    @Override
+    public void holdReplies() {
+        synchronized (this) {
+            holding = true;
+        }
+    }
+
+    @Override
+    public void flushReplies() {
+        synchronized (this) {
+            holding = false;
+            if (heldReplies.size() == 0) {
+                return;
+            }
+            output.add(ByteBuffer.wrap(heldReplies.toByteArray()));
+            heldReplies.reset();
+        }
+        writeOutput();
+    }
+
+    // Write straight away; whatever the socket cannot take is left to the event loop
+    private void writeOutput() {
+        try {
+            flushOutput();
+        } catch (IOException | CancelledKeyException e) {
+            System.err.println("Send Message Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes queued replies until the socket buffer is full and keeps OP_WRITE
+     * registered exactly while something is left over.
+     *
+     * @return true once every queued reply has been written
+     */
+    private synchronized boolean flushOutput() throws IOException {
+        ByteBuffer head;
+        while ((head = output.peek()) != null) {
+            channel.write(head);
+            if (head.hasRemaining()) {
+                break;
+            }
+            output.poll();
+        }
+        updateInterest();
+        return output.isEmpty();
+    }
+
+    /**
+     * OP_WRITE while replies are left over, OP_READ unless the worker or the
+     * client is MAX_QUEUED behind. Called with the lock held.
+     */
+    private void updateInterest() {
+        int ops = output.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+        if (commands.size() < MAX_QUEUED && output.size() < MAX_QUEUED) {
+            ops |= SelectionKey.OP_READ;
+        }
+        try {
+            int previous = key.interestOps();
+            if (ops != previous) {
+                key.interestOps(ops);
+                // The event loop may be blocked in select() with the old set
+                if ((ops & ~previous) != 0) {
+                    key.selector().wakeup();
+                }
+            }
+        } catch (CancelledKeyException e) {
+            // Closed meanwhile
+        }
+    }
+
+    private synchronized boolean isCloseRequested() {
+        return closeRequested;
+    }
+
+    @Override
+    public void cleanup() {
+        flushReplies();
+        synchronized (this) {
+            closeRequested = true;
+            // Let the event loop flush the last replies (e.g. 221) before closing
+            if (!output.isEmpty()) {
+                return;
+            }
+        }
+        closeNow();
+    }
+
+    private void closeNow() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        key.cancel();
+        super.cleanup();
+        onClose.run();
+    }
+}
@@ -0,0 +1,173 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alternative server engine for the control channel. A few selector threads
+ * own all control connections and only hand complete commands to a worker
+ * pool, so an idle session costs a buffer instead of a parked thread.
+ */
+public class NioFTPServer {
+    private static final int PORT = ServerConfig.PORT;
+
+    private final AccountStore accounts;
+    private final EventLoop[] eventLoops;
+    private final ExecutorService workers;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private int nextLoop;
+
+    public NioFTPServer(AccountStore accounts) {
+        this.accounts = accounts;
+        this.eventLoops = new EventLoop[Math.max(1, ServerConfig.NIO_EVENT_LOOPS)];
+        if (ServerConfig.NIO_WORKERS > 0) {
+            this.workers = Executors.newFixedThreadPool(ServerConfig.NIO_WORKERS,
+                    Thread.ofPlatform().name("ftp-worker-", 0).factory());
+        } else {
+            this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ftp-worker-", 0).factory());
+        }
+    }
+
+    public void start() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(PORT), ServerConfig.ACCEPT_BACKLOG);
+
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop();
+                Thread.ofPlatform().name("ftp-eventloop-" + i).start(eventLoops[i]);
+            }
+            System.out.println("FTP Server (nio) started on port " + PORT + " with "
+                    + eventLoops.length + " event loops");
+
+            // The accept loop stays blocking, it only hands channels over to the event loops
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                if (activeSessions.incrementAndGet() > ServerConfig.MAX_SESSIONS) {
+                    activeSessions.decrementAndGet();
+                    reject(channel, FTPResponse.TOO_MANY_USERS);
+                    continue;
+                }
+
+                SessionRegistry.Session session = SessionRegistry.getInstance().open(
+                        channel.socket().getInetAddress());
+                if (session == null) {
+                    activeSessions.decrementAndGet();
+                    reject(channel, FTPResponse.TOO_MANY_FROM_HOST);
+                    continue;
+                }
+
+                SocketTuning.tuneControl(channel.socket());
+                channel.configureBlocking(false);
+                eventLoops[nextLoop].register(channel, session);
+                nextLoop = (nextLoop + 1) % eventLoops.length;
+            }
+        } catch (IOException e) {
+            System.err.println("Server Error: " + e.getMessage());
+        } finally {
+            for (EventLoop loop : eventLoops) {
+                if (loop != null) {
+                    loop.close();
+                }
+            }
+            workers.shutdownNow();
+        }
+    }
+
+    private void reject(SocketChannel channel, String reply) {
+        try (SocketChannel ch = channel) {
+            ch.write(ByteBuffer.wrap((reply + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException e) {
+            System.err.println("Reject Error: " + e.getMessage());
+        }
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<PendingSession> pending = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel, SessionRegistry.Session session) {
+            pending.add(new PendingSession(channel, session));
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    registerPending();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnectionHandler session = (NioConnectionHandler) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            session.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.onWritable();
+                        }
+                    }
+                } catch (ClosedSelectorException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Event Loop Error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registerPending() {
+            PendingSession next;
+            while ((next = pending.poll()) != null) {
+                try {
+                    SelectionKey key = next.channel().register(selector, SelectionKey.OP_READ);
+                    NioConnectionHandler session = new NioConnectionHandler(next.channel(), key, accounts,
+                            next.session(), workers, activeSessions::decrementAndGet);
+                    key.attach(session);
+                    session.sendMessage(FTPResponse.WELCOME);
+                } catch (IOException e) {
+                    System.err.println("Register Error: " + e.getMessage());
+                    SessionRegistry.getInstance().close(next.session());
+                    activeSessions.decrementAndGet();
+                    try {
+                        next.channel().close();
+                    } catch (IOException closeError) {
+                        System.err.println("Close Error: " + closeError.getMessage());
+                    }
+                }
+            }
+        }
+
+        private record PendingSession(SocketChannel channel, SessionRegistry.Session session) {
+        }
+
+        void close() {
+            running = false;
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Event Loop Error: " + e.getMessage());
+            }
+        }
+    }
+}
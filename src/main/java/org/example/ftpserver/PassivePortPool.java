@@ -0,0 +1,217 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the passive port range. Listening sockets are bound the first time
+ * their port is used and then stay bound, so PASV only leases a port
+ * instead of creating and closing a socket for every transfer.
+ * <p>
+ * A lease ends when its data connection has been accepted, when the session
+ * asks for another PASV or closes, or when it has been idle longer than
+ * the lease timeout. Since the ports stay open between leases, connections
+ * queued while a port was free are dropped when it is leased, and only a
+ * connection from the session's own host is accepted.
+ */
+public class PassivePortPool {
+    private static final PassivePortPool INSTANCE = new PassivePortPool(
+            ServerConfig.PASV_PORT_MIN, ServerConfig.PASV_PORT_MAX, ServerConfig.PASV_LEASE_TIMEOUT_MS);
+
+    private final PassivePort[] ports;
+    private final Queue<PassivePort> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger bound = new AtomicInteger();
+    private final long leaseTimeoutMillis;
+
+    public PassivePortPool(int minPort, int maxPort, long leaseTimeoutMillis) {
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.ports = new PassivePort[maxPort - minPort + 1];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = new PassivePort(minPort + i);
+            free.add(ports[i]);
+        }
+
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("ftp-pasv-reaper").daemon().factory());
+        long period = Math.max(1000, leaseTimeoutMillis / 2);
+        reaper.scheduleWithFixedDelay(this::reclaimExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static PassivePortPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a lease on a bound port, or null if every port in the range is taken
+     */
+    public Lease lease() {
+        // Each port is tried at most once per call, so a range full of foreign listeners cannot spin forever
+        for (int attempt = 0; attempt < ports.length; attempt++) {
+            PassivePort port = free.poll();
+            if (port == null) {
+                return null;
+            }
+            try {
+                port.bind();
+            } catch (IOException e) {
+                // Taken by another process; put it at the back and try the next one
+                System.err.println("PASV bind Error on port " + port.number + ": " + e.getMessage());
+                free.add(port);
+                continue;
+            }
+
+            port.drainPending();
+            Lease lease = new Lease(port);
+            port.lease = lease;
+            inUse.incrementAndGet();
+            return lease;
+        }
+        return null;
+    }
+
+    private boolean release(Lease lease, boolean onlyIfIdle) {
+        PassivePort port = lease.port;
+        synchronized (port) {
+            if (port.lease != lease || (onlyIfIdle && lease.accepting)) {
+                return false;
+            }
+            port.lease = null;
+        }
+        port.drainPending();
+        inUse.decrementAndGet();
+        free.add(port);
+        return true;
+    }
+
+    // Takes back ports that were handed out by PASV but never used for a transfer
+    private void reclaimExpired() {
+        long now = System.currentTimeMillis();
+        for (PassivePort port : ports) {
+            Lease lease = port.lease;
+            if (lease != null && now - lease.leasedAt > leaseTimeoutMillis && release(lease, true)) {
+                System.err.println("PASV lease on port " + port.number + " expired");
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return ports.length;
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public int getBound() {
+        return bound.get();
+    }
+
+    private class PassivePort {
+        private final int number;
+        private ServerSocketChannel channel;
+        private volatile Lease lease;
+
+        PassivePort(int number) {
+            this.number = number;
+        }
+
+        synchronized void bind() throws IOException {
+            if (channel != null && channel.isOpen()) {
+                return;
+            }
+            ServerSocketChannel ch = ServerSocketChannel.open();
+            try {
+                ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                SocketTuning.tuneDataListener(ch);
+                ch.bind(new InetSocketAddress(number));
+            } catch (IOException e) {
+                ch.close();
+                throw e;
+            }
+            channel = ch;
+            bound.incrementAndGet();
+        }
+
+        // Drops connections queued while the port was free or held by an earlier lease
+        synchronized void drainPending() {
+            try {
+                channel.configureBlocking(false);
+                SocketChannel stale;
+                while ((stale = channel.accept()) != null) {
+                    stale.close();
+                }
+                channel.configureBlocking(true);
+            } catch (IOException e) {
+                System.err.println("PASV drain Error on port " + number + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One session's claim on a passive port.
+     */
+    public class Lease {
+        private final PassivePort port;
+        private final long leasedAt = System.currentTimeMillis();
+        private boolean accepting; // guarded by the port
+
+        private Lease(PassivePort port) {
+            this.port = port;
+        }
+
+        public int getPort() {
+            return port.number;
+        }
+
+        /**
+         * Waits for the client's data connection and ends the lease.
+         * Connections from any host but {@code client} are closed, so nobody
+         * else can take over the transfer by connecting first.
+         */
+        public Socket accept(int timeoutMillis, InetAddress client) throws IOException {
+            synchronized (port) {
+                if (port.lease != this) {
+                    throw new IOException("Passive port lease expired");
+                }
+                accepting = true;
+            }
+            try {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (true) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (timeoutMillis > 0 && remaining <= 0) {
+                        throw new SocketTimeoutException("Accept timed out");
+                    }
+                    port.channel.socket().setSoTimeout(timeoutMillis > 0 ? (int) remaining : 0);
+                    Socket socket = port.channel.socket().accept();
+                    if (socket.getInetAddress().equals(client)) {
+                        return socket;
+                    }
+                    System.err.println("PASV connection from " + socket.getInetAddress() + " on port "
+                            + port.number + " rejected, expected " + client);
+                    socket.close();
+                }
+            } finally {
+                accepting = false;
+                release();
+            }
+        }
+
+        public void release() {
+            PassivePortPool.this.release(this, false);
+        }
+    }
+}
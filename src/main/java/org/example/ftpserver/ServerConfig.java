@@ -0,0 +1,97 @@
+package org.example.ftpserver;
+
+/**
+ * Server tunables. Each value can be overridden with a system property,
+ * e.g. {@code -Dftp.maxSessions=5000}.
+ */
+public class ServerConfig {
+    public static final int PORT = Integer.getInteger("ftp.port", 1234);
+    // Connections the kernel queues while the accept loop is busy; past it, new clients stall in the handshake
+    public static final int ACCEPT_BACKLOG = Integer.getInteger("ftp.acceptBacklog", 1024);
+
+    // Session executor: "virtual" (default) or "platform"
+    public static final String SESSION_THREADS = System.getProperty("ftp.sessionThreads", "virtual");
+    public static final int MAX_SESSIONS = Integer.getInteger("ftp.maxSessions", 10000);
+    // Connections allowed per client address and logged-in sessions per user; 0 means no limit
+    public static final int MAX_SESSIONS_PER_IP = Integer.getInteger("ftp.maxSessionsPerIp", 200);
+    public static final int MAX_SESSIONS_PER_USER = Integer.getInteger("ftp.maxSessionsPerUser", 50);
+
+    // Control channel engine: "blocking" (one thread per session) or "nio" (selector event loops)
+    public static final String ENGINE = System.getProperty("ftp.engine", "blocking");
+    public static final int NIO_EVENT_LOOPS = Integer.getInteger("ftp.nio.eventLoops",
+            Runtime.getRuntime().availableProcessors());
+    // Worker threads running commands for the nio engine; 0 means one virtual thread per command batch
+    public static final int NIO_WORKERS = Integer.getInteger("ftp.nio.workers", 0);
+    public static final int MAX_COMMAND_LENGTH = Integer.getInteger("ftp.maxCommandLength", 4096);
+
+    // Socket options profile, see SocketTuning; buffer sizes in bytes, 0 keeps the profile's choice
+    public static final String SOCKET_PROFILE = System.getProperty("ftp.socket.profile", "latency");
+    public static final int SOCKET_SNDBUF = Integer.getInteger("ftp.socket.sndBuf", 0);
+    public static final int SOCKET_RCVBUF = Integer.getInteger("ftp.socket.rcvBuf", 0);
+
+    // Accounts file to use instead of the database.txt resource, and how often it is checked for changes
+    public static final String ACCOUNTS_FILE = System.getProperty("ftp.accounts");
+    public static final long ACCOUNTS_RELOAD_MS = Long.getLong("ftp.accounts.reloadMs", 5_000);
+    // Recently verified logins remembered to skip PBKDF2
+    public static final int CREDENTIAL_CACHE_SIZE = Integer.getInteger("ftp.accounts.credentialCache", 10_000);
+
+    // Passive data ports handed out by PASV, and how long an unused lease is kept
+    public static final int PASV_PORT_MIN = Integer.getInteger("ftp.pasv.portMin", 50000);
+    public static final int PASV_PORT_MAX = Integer.getInteger("ftp.pasv.portMax", 51999);
+    public static final long PASV_LEASE_TIMEOUT_MS = Long.getLong("ftp.pasv.leaseTimeoutMs", 60_000);
+    public static final int DATA_ACCEPT_TIMEOUT_MS = Integer.getInteger("ftp.dataAcceptTimeoutMs", 30_000);
+
+    // Where files are kept: "local" (under ftp.storage.root) or "memory" (lost on restart, see MemoryStorage)
+    public static final String STORAGE = System.getProperty("ftp.storage", "local");
+    // Directory the accounts' root folders are resolved against
+    public static final String STORAGE_ROOT = System.getProperty("ftp.storage.root",
+            System.getProperty("user.dir") + "/src/main/java/org/example/ftpserver/user");
+    // Memory storage: total bytes of file content, and whether it is kept off the Java heap
+    public static final long STORAGE_MEMORY_MAX_BYTES = Long.getLong("ftp.storage.memory.maxBytes", 1L << 30);
+    public static final boolean STORAGE_MEMORY_OFF_HEAP =
+            Boolean.parseBoolean(System.getProperty("ftp.storage.memory.offHeap", "true"));
+
+    // LIST cache: total budget and the largest single listing that is cached
+    public static final long LIST_CACHE_BYTES = Long.getLong("ftp.list.cacheBytes", 64L * 1024 * 1024);
+    public static final int LIST_CACHE_MAX_ENTRY = Integer.getInteger("ftp.list.cacheMaxEntry", 4 * 1024 * 1024);
+    // SIZE/MDTM attribute cache: total files and directories remembered; 0 turns it off
+    public static final int ATTR_CACHE_ENTRIES = Integer.getInteger("ftp.attr.cacheEntries", 200_000);
+    // RETR content cache (off-heap): total budget, 0 turns it off, and the largest file kept
+    public static final long RETR_CACHE_BYTES = Long.getLong("ftp.retr.cacheBytes", 256L * 1024 * 1024);
+    public static final long RETR_CACHE_MAX_FILE = Long.getLong("ftp.retr.cacheMaxFile", 16L * 1024 * 1024);
+
+    // STOR: size of the pooled direct buffers and how many are kept around
+    public static final int STOR_BUFFER_SIZE = Integer.getInteger("ftp.stor.bufferSize", 1024 * 1024);
+    public static final int STOR_BUFFER_POOL = Integer.getInteger("ftp.stor.bufferPool", 64);
+    // STOR fsync policy: "none", "close" or "every" (every STOR_FSYNC_MB megabytes and on close)
+    public static final String STOR_FSYNC = System.getProperty("ftp.stor.fsync", "close");
+    public static final int STOR_FSYNC_MB = Integer.getInteger("ftp.stor.fsyncMb", 256);
+
+    // MODE Z: zlib level (1 fastest .. 9 smallest) and how many idle Deflaters/Inflaters are kept
+    public static final int MODE_Z_LEVEL = Integer.getInteger("ftp.modez.level", 6);
+    public static final int MODE_Z_POOL = Integer.getInteger("ftp.modez.pool", 64);
+
+    // FTPS: PKCS12 (or other type) keystore holding the server certificate; AUTH TLS is refused without one
+    public static final String TLS_KEYSTORE = System.getProperty("ftp.tls.keystore");
+    public static final String TLS_KEYSTORE_PASSWORD = System.getProperty("ftp.tls.keystorePassword", "changeit");
+    public static final String TLS_KEYSTORE_TYPE = System.getProperty("ftp.tls.keystoreType", "PKCS12");
+    // How long a TLS session can be resumed by later data connections
+    public static final int TLS_SESSION_TIMEOUT_S = Integer.getInteger("ftp.tls.sessionTimeoutS", 3600);
+
+    // Digests remembered across restarts; empty keeps them in memory only
+    public static final String DIGEST_CACHE_FILE = System.getProperty("ftp.digest.cacheFile", "ftp-digests.txt");
+    // Digests computed while STOR writes, comma separated; "none" to skip
+    public static final String DIGEST_ON_STORE = System.getProperty("ftp.digest.onStore", "SHA-256,CRC32");
+
+    // Data connection bandwidth in bytes per second, 0 means unlimited; see TrafficShaper
+    public static final long RATE_GLOBAL = Long.getLong("ftp.rate.global", 0);
+    public static final long RATE_PER_USER = Long.getLong("ftp.rate.perUser", 0);
+    public static final long RATE_PER_SESSION = Long.getLong("ftp.rate.perSession", 0);
+    // How much an idle bucket lets through at full speed before pacing starts
+    public static final long RATE_BURST_MS = Long.getLong("ftp.rate.burstMs", 100);
+    // Users allowed to change the global and per-user rates with SITE RATE, comma separated
+    public static final String RATE_ADMINS = System.getProperty("ftp.rate.admins", "admin");
+
+    // Loopback port of the plain-text metrics endpoint; 0 turns it off (JMX and SITE STATS stay available)
+    public static final int METRICS_PORT = Integer.getInteger("ftp.metrics.port", 9121);
+}
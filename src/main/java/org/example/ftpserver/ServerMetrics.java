@@ -0,0 +1,377 @@
+package org.example.ftpserver;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for commands, transfers and replies.
+ * Everything is a {@link LongAdder}, which stripes updates over per-CPU
+ * cells, so sessions recording at the same time do not contend on one
+ * cache line; reads add the cells up and are only done for reports.
+ * <p>
+ * The numbers can be read through JMX ({@link ServerMetricsMXBean}),
+ * {@code SITE STATS}, and a plain-text endpoint on
+ * {@code http://127.0.0.1:<ftp.metrics.port>/metrics} in the Prometheus
+ * exposition format.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] TRANSFERS = {"RETR", "STOR"};
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    private final Histogram[] commandLatency = new Histogram[Verb.values().length];
+    private final Histogram[] transferRate = new Histogram[TRANSFERS.length];
+    private final LongAdder[] transferBytes = new LongAdder[TRANSFERS.length];
+    // Replies from 400 to 599
+    private final LongAdder[] errorReplies = new LongAdder[200];
+    private HttpServer endpoint;
+
+    public ServerMetrics() {
+        for (int i = 0; i < commandLatency.length; i++) {
+            commandLatency[i] = new Histogram();
+        }
+        for (int i = 0; i < TRANSFERS.length; i++) {
+            transferRate[i] = new Histogram();
+            transferBytes[i] = new LongAdder();
+        }
+        for (int i = 0; i < errorReplies.length; i++) {
+            errorReplies[i] = new LongAdder();
+        }
+    }
+
+    public static ServerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the MXBean and, unless {@code port} is 0, starts the
+     * metrics endpoint on the loopback interface.
+     */
+    public synchronized void start(int port) {
+        try {
+            ObjectName name = new ObjectName("org.example.ftpserver:type=ServerMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Metrics Error: cannot register MXBean: " + e.getMessage());
+        }
+
+        if (port == 0 || endpoint != null) {
+            return;
+        }
+        try {
+            // Loopback only: the numbers are for a local scraper, not for FTP clients
+            endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            endpoint.createContext("/metrics", exchange -> {
+                byte[] body = report().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            endpoint.start();
+            System.out.println("Metrics available on http://127.0.0.1:" + port + "/metrics");
+        } catch (IOException e) {
+            endpoint = null;
+            System.err.println("Metrics Error: cannot listen on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    public void recordCommand(Verb verb, long nanos) {
+        commandLatency[verb.ordinal()].record(nanos / 1000);
+    }
+
+    public void recordTransfer(String command, long bytes, long nanos) {
+        for (int i = 0; i < TRANSFERS.length; i++) {
+            if (TRANSFERS[i].equals(command)) {
+                transferBytes[i].add(bytes);
+                // KB/s, so that small and multi-GB transfers fit the same histogram
+                transferRate[i].record((long) (bytes / 1024.0 / (Math.max(nanos, 1) / 1e9)));
+                return;
+            }
+        }
+    }
+
+    // Called for every reply; only 4xx and 5xx are counted
+    public void recordReply(String reply) {
+        if (reply.length() < 3 || reply.charAt(0) < '4' || reply.charAt(0) > '5') {
+            return;
+        }
+        int code = (reply.charAt(0) - '0') * 100 + (reply.charAt(1) - '0') * 10 + (reply.charAt(2) - '0');
+        if (code >= 400 && code < 600) {
+            errorReplies[code - 400].increment();
+        }
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return SessionRegistry.getInstance().getActiveSessions();
+    }
+
+    @Override
+    public int getLoggedInSessions() {
+        return SessionRegistry.getInstance().getLoggedInSessions();
+    }
+
+    @Override
+    public int getPassivePortsInUse() {
+        return PassivePortPool.getInstance().getInUse();
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Verb verb : Verb.values()) {
+            long count = commandLatency[verb.ordinal()].count();
+            if (count > 0) {
+                counts.put(verb.name(), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getCommandLatencyP99Micros() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for (Verb verb : Verb.values()) {
+            Histogram histogram = commandLatency[verb.ordinal()];
+            if (histogram.count() > 0) {
+                latencies.put(verb.name(), histogram.percentile(0.99));
+            }
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < errorReplies.length; i++) {
+            long count = errorReplies[i].sum();
+            if (count > 0) {
+                counts.put(String.valueOf(400 + i), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return transferBytes[0].sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return transferBytes[1].sum();
+    }
+
+    @Override
+    public long getContentCacheHits() {
+        return ContentCache.getInstance().getHits();
+    }
+
+    @Override
+    public long getContentCacheMisses() {
+        return ContentCache.getInstance().getMisses();
+    }
+
+    @Override
+    public double getContentCacheHitRate() {
+        long hits = getContentCacheHits();
+        long lookups = hits + getContentCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getContentCacheBytes() {
+        return ContentCache.getInstance().getTotalBytes();
+    }
+
+    @Override
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE ftp_sessions_active gauge\n");
+        sb.append("ftp_sessions_active ").append(getActiveSessions()).append('\n');
+        sb.append("# TYPE ftp_sessions_logged_in gauge\n");
+        sb.append("ftp_sessions_logged_in ").append(getLoggedInSessions()).append('\n');
+        sb.append("# TYPE ftp_passive_ports_in_use gauge\n");
+        sb.append("ftp_passive_ports_in_use ").append(getPassivePortsInUse()).append('\n');
+
+        sb.append("# TYPE ftp_command_latency_us summary\n");
+        for (Verb verb : Verb.values()) {
+            appendSummary(sb, "ftp_command_latency_us", "verb", verb.name(), commandLatency[verb.ordinal()]);
+        }
+        sb.append("# TYPE ftp_transfer_rate_kbps summary\n");
+        for (int i = 0; i < TRANSFERS.length; i++) {
+            appendSummary(sb, "ftp_transfer_rate_kbps", "command", TRANSFERS[i], transferRate[i]);
+        }
+        sb.append("# TYPE ftp_transfer_bytes_total counter\n");
+        for (int i = 0; i < TRANSFERS.length; i++) {
+            sb.append("ftp_transfer_bytes_total{command=\"").append(TRANSFERS[i]).append("\"} ")
+                    .append(transferBytes[i].sum()).append('\n');
+        }
+        sb.append("# TYPE ftp_error_replies_total counter\n");
+        for (Map.Entry<String, Long> e : getErrorCounts().entrySet()) {
+            sb.append("ftp_error_replies_total{code=\"").append(e.getKey()).append("\"} ")
+                    .append(e.getValue()).append('\n');
+        }
+        ContentCache cache = ContentCache.getInstance();
+        sb.append("# TYPE ftp_content_cache_hits_total counter\n");
+        sb.append("ftp_content_cache_hits_total ").append(cache.getHits()).append('\n');
+        sb.append("# TYPE ftp_content_cache_misses_total counter\n");
+        sb.append("ftp_content_cache_misses_total ").append(cache.getMisses()).append('\n');
+        sb.append("# TYPE ftp_content_cache_hit_bytes_total counter\n");
+        sb.append("ftp_content_cache_hit_bytes_total ").append(cache.getHitBytes()).append('\n');
+        sb.append("# TYPE ftp_content_cache_evictions_total counter\n");
+        sb.append("ftp_content_cache_evictions_total ").append(cache.getEvictions()).append('\n');
+        sb.append("# TYPE ftp_content_cache_rejections_total counter\n");
+        sb.append("ftp_content_cache_rejections_total ").append(cache.getRejections()).append('\n');
+        sb.append("# TYPE ftp_content_cache_bytes gauge\n");
+        sb.append("ftp_content_cache_bytes ").append(cache.getTotalBytes()).append('\n');
+        sb.append("# TYPE ftp_content_cache_files gauge\n");
+        sb.append("ftp_content_cache_files ").append(cache.size()).append('\n');
+        return sb.toString();
+    }
+
+    private static void appendSummary(StringBuilder sb, String metric, String label, String value,
+                                      Histogram histogram) {
+        long count = histogram.count();
+        if (count == 0) {
+            return;
+        }
+        String labels = "{" + label + "=\"" + value + "\"";
+        for (double q : QUANTILES) {
+            sb.append(metric).append(labels).append(",quantile=\"").append(q).append("\"} ")
+                    .append(histogram.percentile(q)).append('\n');
+        }
+        sb.append(metric).append("_sum").append(labels).append("} ").append(histogram.sum()).append('\n');
+        sb.append(metric).append("_count").append(labels).append("} ").append(count).append('\n');
+    }
+
+    /**
+     * Short human-readable form of the report for SITE STATS, one line per entry.
+     */
+    public String[] summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Sessions: ").append(getActiveSessions()).append(" active, ")
+                .append(getLoggedInSessions()).append(" logged in, ")
+                .append(getPassivePortsInUse()).append(" passive ports in use\n");
+        for (Verb verb : Verb.values()) {
+            Histogram histogram = commandLatency[verb.ordinal()];
+            if (histogram.count() > 0) {
+                sb.append(String.format("%-8s n=%d p50=%dus p99=%dus p999=%dus max=%dus%n", verb.name(),
+                        histogram.count(), histogram.percentile(0.5), histogram.percentile(0.99),
+                        histogram.percentile(0.999), histogram.max()));
+            }
+        }
+        for (int i = 0; i < TRANSFERS.length; i++) {
+            Histogram histogram = transferRate[i];
+            if (histogram.count() > 0) {
+                sb.append(String.format("%s transfers n=%d bytes=%d p50=%dKB/s p99=%dKB/s%n", TRANSFERS[i],
+                        histogram.count(), transferBytes[i].sum(), histogram.percentile(0.5),
+                        histogram.percentile(0.99)));
+            }
+        }
+        ContentCache cache = ContentCache.getInstance();
+        if (cache.getHits() + cache.getMisses() > 0) {
+            sb.append(String.format("Content cache: %d files, %d bytes, hit rate %.1f%% (%d/%d), %d evicted%n",
+                    cache.size(), cache.getTotalBytes(), getContentCacheHitRate() * 100, cache.getHits(),
+                    cache.getHits() + cache.getMisses(), cache.getEvictions()));
+        }
+        Map<String, Long> errors = getErrorCounts();
+        if (!errors.isEmpty()) {
+            sb.append("Errors: ").append(errors).append('\n');
+        }
+        return sb.toString().split("\n");
+    }
+
+    /**
+     * Log-linear histogram of non-negative values: each power of two is
+     * split into 8 buckets, so a percentile is off by at most 12.5%, and
+     * recording is one striped increment.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 40;
+
+        private final LongAdder[] buckets = new LongAdder[(MAX_EXPONENT - 1) * SUB_BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            value = Math.max(value, 0);
+            buckets[index(value)].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return Math.min((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub, (MAX_EXPONENT - 1) * SUB_BUCKETS - 1);
+        }
+
+        // Middle of the bucket
+        private static long valueAt(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (SUB_BUCKETS + index % SUB_BUCKETS) * width + width / 2;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long percentile(double quantile) {
+            long total = count();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return Math.min(valueAt(i), max());
+                }
+            }
+            return max();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.example.ftpserver;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ServerMetrics}, registered as
+ * {@code org.example.ftpserver:type=ServerMetrics}.
+ */
+public interface ServerMetricsMXBean {
+    int getActiveSessions();
+
+    int getLoggedInSessions();
+
+    int getPassivePortsInUse();
+
+    // Commands handled per verb
+    Map<String, Long> getCommandCounts();
+
+    // 99th percentile command latency per verb, in microseconds
+    Map<String, Long> getCommandLatencyP99Micros();
+
+    // Replies sent per 4xx/5xx code
+    Map<String, Long> getErrorCounts();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    // RETRs of files on disk served from the content cache, and the rest
+    long getContentCacheHits();
+
+    long getContentCacheMisses();
+
+    // Hits out of all lookups, 0 before the first RETR
+    double getContentCacheHitRate();
+
+    long getContentCacheBytes();
+
+    // Everything above and more, in the format served by the metrics endpoint
+    String report();
+}
@@ -0,0 +1,78 @@
+package org.example.ftpserver;
+
+import java.util.concurrent.*;
+
+/**
+ * Runs control sessions and caps how many may be active at once.
+ * A session that does not fit is refused by {@link #submit} so the caller
+ * can answer with a 421 reply instead of queueing it.
+ */
+public class SessionExecutor {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxSessions;
+
+    public SessionExecutor(ExecutorService executor, int maxSessions) {
+        this.executor = executor;
+        this.maxSessions = maxSessions;
+        this.permits = new Semaphore(maxSessions);
+    }
+
+    // One virtual thread per session, no pooling needed
+    public static SessionExecutor virtualThreads(int maxSessions) {
+        ThreadFactory factory = Thread.ofVirtual().name("ftp-session-", 0).factory();
+        return new SessionExecutor(Executors.newThreadPerTaskExecutor(factory), maxSessions);
+    }
+
+    // Platform threads, reused between sessions and never more than maxSessions
+    public static SessionExecutor platformThreads(int maxSessions) {
+        ThreadFactory factory = Thread.ofPlatform().name("ftp-session-", 0).factory();
+        ExecutorService pool = new ThreadPoolExecutor(0, maxSessions, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), factory);
+        return new SessionExecutor(pool, maxSessions);
+    }
+
+    public static SessionExecutor fromConfig() {
+        if ("platform".equalsIgnoreCase(ServerConfig.SESSION_THREADS)) {
+            return platformThreads(ServerConfig.MAX_SESSIONS);
+        }
+        return virtualThreads(ServerConfig.MAX_SESSIONS);
+    }
+
+    /**
+     * Starts the session if the limit allows it.
+     *
+     * @return false if the server is full and the session was not started
+     */
+    public boolean submit(Runnable session) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    session.run();
+                } finally {
+                    permits.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return false;
+        }
+    }
+
+    public int getActiveSessions() {
+        return maxSessions - permits.availablePermits();
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
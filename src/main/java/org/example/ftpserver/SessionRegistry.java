@@ -0,0 +1,223 @@
+package org.example.ftpserver;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Live control sessions of the server. Every session is registered when it
+ * is accepted and removed when it closes; logins are counted per user and
+ * connections per client address, and both are capped by
+ * {@code ftp.maxSessionsPerUser} and {@code ftp.maxSessionsPerIp}.
+ * <p>
+ * Counters are updated with compare-and-set only, so accepting, logging in
+ * and closing never wait on another session.
+ */
+public class SessionRegistry {
+    private static final SessionRegistry INSTANCE = new SessionRegistry(
+            ServerConfig.MAX_SESSIONS_PER_USER, ServerConfig.MAX_SESSIONS_PER_IP);
+
+    private final ConcurrentMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> perUser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> perIp = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger loggedIn = new AtomicInteger();
+    private final int maxPerUser;
+    private final int maxPerIp;
+
+    public SessionRegistry(int maxPerUser, int maxPerIp) {
+        this.maxPerUser = maxPerUser;
+        this.maxPerIp = maxPerIp;
+    }
+
+    public static SessionRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers a freshly accepted connection.
+     *
+     * @return the new session, or null if the address already has as many connections as allowed
+     */
+    public Session open(InetAddress address) {
+        String ip = address != null ? address.getHostAddress() : "unknown";
+        if (!acquire(perIp, ip, maxPerIp)) {
+            return null;
+        }
+        Session session = new Session(nextId.incrementAndGet(), ip);
+        sessions.put(session.id, session);
+        active.incrementAndGet();
+        return session;
+    }
+
+    /**
+     * Counts the session as logged in as {@code username}, logging it out of
+     * any previous user first.
+     *
+     * @return false if the user already has as many sessions as allowed
+     */
+    public boolean login(Session session, String username) {
+        logout(session);
+        if (session.closed.get() || !acquire(perUser, username, maxPerUser)) {
+            return false;
+        }
+        session.username.set(username);
+        loggedIn.incrementAndGet();
+        // The session may have been closed while the login was being counted
+        if (session.closed.get()) {
+            logout(session);
+            return false;
+        }
+        return true;
+    }
+
+    public void logout(Session session) {
+        String username = session.username.getAndSet(null);
+        if (username != null) {
+            release(perUser, username);
+            loggedIn.decrementAndGet();
+        }
+    }
+
+    // Safe to call more than once, only the first call releases anything
+    public void close(Session session) {
+        if (!session.closed.compareAndSet(false, true)) {
+            return;
+        }
+        logout(session);
+        sessions.remove(session.id);
+        release(perIp, session.address);
+        active.decrementAndGet();
+    }
+
+    /**
+     * @return a snapshot of the live sessions, in no particular order
+     */
+    public List<Session> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public int getActiveSessions() {
+        return active.get();
+    }
+
+    public int getLoggedInSessions() {
+        return loggedIn.get();
+    }
+
+    public int getSessionCount(String username) {
+        AtomicInteger count = perUser.get(username);
+        return count != null ? Math.max(0, count.get()) : 0;
+    }
+
+    public int getConnectionCount(String ip) {
+        AtomicInteger count = perIp.get(ip);
+        return count != null ? Math.max(0, count.get()) : 0;
+    }
+
+    /*
+     * A counter that drops to zero is retired by setting it to -1 before it
+     * is removed from the map; a thread that still holds the retired counter
+     * sees the -1 and starts over with a fresh one.
+     */
+    private static boolean acquire(ConcurrentMap<String, AtomicInteger> counts, String key, int limit) {
+        while (true) {
+            AtomicInteger count = counts.computeIfAbsent(key, k -> new AtomicInteger());
+            while (true) {
+                int current = count.get();
+                if (current < 0) {
+                    break;
+                }
+                if (limit > 0 && current >= limit) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static void release(ConcurrentMap<String, AtomicInteger> counts, String key) {
+        AtomicInteger count = counts.get(key);
+        if (count != null && count.decrementAndGet() == 0 && count.compareAndSet(0, -1)) {
+            counts.remove(key, count);
+        }
+    }
+
+    /**
+     * One control connection. The owning session thread updates it, anyone
+     * may read it.
+     */
+    public static class Session {
+        private final long id;
+        private final String address;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicReference<String> username = new AtomicReference<>();
+        private volatile String currentCommand;
+
+        Session(long id, String address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        // Null until the session has logged in
+        public String getUsername() {
+            return username.get();
+        }
+
+        public String getCurrentCommand() {
+            return currentCommand;
+        }
+
+        public void setCurrentCommand(String currentCommand) {
+            this.currentCommand = currentCommand;
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        public void addBytesSent(long bytes) {
+            bytesSent.addAndGet(bytes);
+        }
+
+        public void addBytesReceived(long bytes) {
+            bytesReceived.addAndGet(bytes);
+        }
+
+        @Override
+        public String toString() {
+            String user = username.get();
+            return "#" + id + " " + address + " " + (user != null ? user : "-")
+                    + " since " + startTime + " cmd=" + currentCommand
+                    + " sent=" + bytesSent.get() + " received=" + bytesReceived.get();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Socket options for control and data connections, chosen by
+ * {@code ftp.socket.profile}:
+ * <ul>
+ *   <li>{@code latency} (default): TCP_NODELAY everywhere and keepalive on
+ *   control connections; buffer sizes are left to the kernel's autotuning.</li>
+ *   <li>{@code throughput}: as above, plus 4 MB send and receive buffers on
+ *   data connections for long fat links.</li>
+ *   <li>{@code os}: no options are touched.</li>
+ * </ul>
+ * {@code ftp.socket.sndBuf} and {@code ftp.socket.rcvBuf} override the data
+ * buffer sizes of any profile.
+ */
+public class SocketTuning {
+    private static final int THROUGHPUT_BUFFER = 4 * 1024 * 1024;
+
+    private static final boolean TUNE = !"os".equalsIgnoreCase(ServerConfig.SOCKET_PROFILE);
+    private static final int DATA_SNDBUF = bufferSize(ServerConfig.SOCKET_SNDBUF);
+    private static final int DATA_RCVBUF = bufferSize(ServerConfig.SOCKET_RCVBUF);
+
+    private static int bufferSize(int configured) {
+        if (configured > 0) {
+            return configured;
+        }
+        return "throughput".equalsIgnoreCase(ServerConfig.SOCKET_PROFILE) ? THROUGHPUT_BUFFER : 0;
+    }
+
+    /**
+     * Control replies are small and already batched per response, so Nagle
+     * would only add delay; keepalive lets dead idle sessions be noticed.
+     */
+    public static void tuneControl(Socket socket) {
+        if (!TUNE) {
+            return;
+        }
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+        } catch (IOException e) {
+            System.err.println("Socket Option Error: " + e.getMessage());
+        }
+    }
+
+    public static void tuneData(Socket socket) {
+        if (!TUNE) {
+            return;
+        }
+        try {
+            // The last partial segment of a transfer should not wait for a delayed ACK
+            socket.setTcpNoDelay(true);
+            if (DATA_SNDBUF > 0) {
+                socket.setSendBufferSize(DATA_SNDBUF);
+            }
+        } catch (IOException e) {
+            System.err.println("Socket Option Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applied to passive listeners before they are bound: the receive window
+     * of an accepted connection is only negotiated from the listener's buffer.
+     */
+    public static void tuneDataListener(ServerSocketChannel channel) throws IOException {
+        if (TUNE && DATA_RCVBUF > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, DATA_RCVBUF);
+        }
+    }
+}
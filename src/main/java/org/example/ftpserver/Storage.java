@@ -0,0 +1,80 @@
+package org.example.ftpserver;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * The files one user sees. Every command handler goes through this instead
+ * of java.nio.file, so a session can be backed by the local disk
+ * ({@link LocalStorage}) or by memory ({@link MemoryStorage}), chosen with
+ * {@code ftp.storage}.
+ * <p>
+ * Paths are virtual: absolute, "/"-separated and already normalized by
+ * {@link ConnectionHandler#resolvePath(String)}, with "/" being the user's
+ * root. A backend never sees "." or ".." segments.
+ */
+public interface Storage {
+
+    /**
+     * What LIST, MLSD, MLST, SIZE and MDTM show about one entry.
+     * Permissions are the owner's.
+     */
+    record FileInfo(String name, boolean directory, long size, long modifiedMillis,
+                    boolean readable, boolean writable, boolean executable, String owner) {
+    }
+
+    /**
+     * The storage for {@code account}'s root folder, or null if that root
+     * does not exist.
+     */
+    static Storage forAccount(Account account) {
+        if ("memory".equals(ServerConfig.STORAGE)) {
+            return MemoryStorage.forRoot(account.getRootFolder());
+        }
+        return LocalStorage.forRoot(account.getRootFolder());
+    }
+
+    /**
+     * @return the entry at {@code path}, or null if there is none
+     */
+    FileInfo stat(String path) throws IOException;
+
+    /**
+     * Streams the entries of a directory, without hidden (dot) entries.
+     *
+     * @param nameFilter entries whose name it rejects are skipped; null for all
+     */
+    DirectoryStream<FileInfo> list(String dir, Predicate<String> nameFilter) throws IOException;
+
+    /**
+     * Opens a file for reading from {@code offset}.
+     */
+    ReadableByteChannel openRead(String path, long offset) throws IOException;
+
+    /**
+     * Opens a file for writing at {@code offset}, creating it if needed.
+     * Whatever was stored from {@code offset} on is replaced, so the file
+     * ends with the last byte written.
+     */
+    WritableByteChannel openWrite(String path, long offset) throws IOException;
+
+    /**
+     * Deletes a file or an empty directory.
+     *
+     * @return false if there was nothing to delete
+     */
+    boolean delete(String path) throws IOException;
+
+    // Creates the directory and any missing parents
+    void mkdirs(String path) throws IOException;
+
+    /**
+     * Where {@code path} lives on the local disk, for the caches that watch
+     * the file system; null if it is not on disk.
+     */
+    Path localPath(String path);
+}
@@ -0,0 +1,80 @@
+package org.example.ftpserver;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Explicit FTPS (RFC 4217). The server certificate comes from the keystore
+ * named by {@code ftp.tls.keystore}; without one, AUTH TLS is refused.
+ * <p>
+ * Control and data sockets share one SSLContext, so its server session
+ * cache lets a client resume the control connection's TLS session on every
+ * PROT P data connection: an abbreviated handshake instead of a full one
+ * per transfer.
+ */
+public class TlsSupport {
+    private static final SSLContext CONTEXT = createContext();
+
+    private static SSLContext createContext() {
+        if (ServerConfig.TLS_KEYSTORE == null) {
+            return null;
+        }
+        char[] password = ServerConfig.TLS_KEYSTORE_PASSWORD.toCharArray();
+        try (InputStream in = Files.newInputStream(Path.of(ServerConfig.TLS_KEYSTORE))) {
+            KeyStore keyStore = KeyStore.getInstance(ServerConfig.TLS_KEYSTORE_TYPE);
+            keyStore.load(in, password);
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, password);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+            context.getServerSessionContext().setSessionTimeout(ServerConfig.TLS_SESSION_TIMEOUT_S);
+            System.out.println("TLS enabled with keystore " + ServerConfig.TLS_KEYSTORE);
+            return context;
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("TLS Error: cannot load keystore " + ServerConfig.TLS_KEYSTORE + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return CONTEXT != null;
+    }
+
+    /**
+     * Layers the server side of TLS over an accepted connection. The
+     * handshake has not run yet, see {@link #handshake}.
+     *
+     * @param consumed bytes already read from {@code socket} that belong to the handshake
+     */
+    public static SSLSocket wrap(Socket socket, byte[] consumed) throws IOException {
+        SSLSocketFactory factory = CONTEXT.getSocketFactory();
+        SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket,
+                consumed.length > 0 ? new ByteArrayInputStream(consumed) : null, true);
+        sslSocket.setUseClientMode(false);
+        return sslSocket;
+    }
+
+    // Closes the socket if the handshake fails
+    public static void handshake(SSLSocket sslSocket, int handshakeTimeoutMillis) throws IOException {
+        try {
+            int timeout = sslSocket.getSoTimeout();
+            sslSocket.setSoTimeout(handshakeTimeoutMillis);
+            sslSocket.startHandshake();
+            sslSocket.setSoTimeout(timeout);
+        } catch (IOException e) {
+            sslSocket.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.example.ftpserver;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bandwidth limits for data connections, as token buckets at three levels:
+ * the whole server, each account (shared by all of its sessions) and each
+ * session. Every byte of a RETR, STOR, LIST or MLSD is drawn from all three,
+ * and the transfer waits for the slowest of them.
+ * <p>
+ * A bucket may go into debt; whoever draws next waits until the debt is
+ * paid off. Transfers draw at most {@link #CHUNK} bytes at a time, so
+ * concurrent transfers behind the same bucket take turns and share it
+ * evenly instead of one bulk copy running ahead. Rates are in bytes per
+ * second, 0 means unlimited, and can be changed while transfers run.
+ */
+public class TrafficShaper {
+    public static final int CHUNK = 64 * 1024;
+
+    private static final TrafficShaper INSTANCE = new TrafficShaper(
+            ServerConfig.RATE_GLOBAL, ServerConfig.RATE_PER_USER);
+
+    private final TokenBucket global;
+    private final ConcurrentMap<String, TokenBucket> accounts = new ConcurrentHashMap<>();
+    private volatile long defaultAccountRate;
+
+    public TrafficShaper(long globalRate, long accountRate) {
+        this.global = new TokenBucket(globalRate);
+        this.defaultAccountRate = accountRate;
+    }
+
+    public static TrafficShaper getInstance() {
+        return INSTANCE;
+    }
+
+    public long getGlobalRate() {
+        return global.getRate();
+    }
+
+    public void setGlobalRate(long rate) {
+        global.setRate(rate);
+    }
+
+    public long getAccountRate(String username) {
+        TokenBucket bucket = accounts.get(username);
+        return bucket != null ? bucket.getRate() : defaultAccountRate;
+    }
+
+    public void setAccountRate(String username, long rate) {
+        account(username).setRate(rate);
+    }
+
+    private TokenBucket account(String username) {
+        return accounts.computeIfAbsent(username, name -> new TokenBucket(defaultAccountRate));
+    }
+
+    /**
+     * The limits a transfer of this session is subject to.
+     */
+    public Limiter limiter(ConnectionHandler conn) {
+        String username = conn.getSession().getUsername();
+        return new Limiter(global, username != null ? account(username) : null, conn.getRateLimit());
+    }
+
+    /**
+     * One level of the hierarchy.
+     */
+    public static class TokenBucket {
+        private volatile long rate;
+        private double tokens; // guarded by "this"
+        private long lastRefill = System.nanoTime();
+
+        public TokenBucket(long rate) {
+            this.rate = Math.max(rate, 0);
+            this.tokens = burst(this.rate);
+        }
+
+        public long getRate() {
+            return rate;
+        }
+
+        public synchronized void setRate(long rate) {
+            refill(System.nanoTime());
+            this.rate = Math.max(rate, 0);
+            tokens = Math.min(tokens, burst(this.rate));
+        }
+
+        boolean isLimited() {
+            return rate > 0;
+        }
+
+        /**
+         * Takes {@code bytes} from the bucket.
+         *
+         * @return nanoseconds the caller has to wait for them
+         */
+        synchronized long reserve(long bytes) {
+            long r = rate;
+            if (r <= 0) {
+                return 0;
+            }
+            refill(System.nanoTime());
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / r);
+        }
+
+        private void refill(long now) {
+            long r = rate;
+            if (r > 0) {
+                tokens = Math.min(burst(r), tokens + (now - lastRefill) * (r / 1e9));
+            }
+            lastRefill = now;
+        }
+
+        // How much an idle bucket lets through at once; never less than one chunk
+        private static double burst(long rate) {
+            return Math.max(CHUNK, rate * (ServerConfig.RATE_BURST_MS / 1000.0));
+        }
+    }
+
+    /**
+     * Draws one transfer's bytes from its session, account and global buckets.
+     */
+    public static class Limiter {
+        private final TokenBucket global;
+        private final TokenBucket account;
+        private final TokenBucket session;
+
+        Limiter(TokenBucket global, TokenBucket account, TokenBucket session) {
+            this.global = global;
+            this.account = account;
+            this.session = session;
+        }
+
+        public boolean isLimited() {
+            return global.isLimited() || session.isLimited() || (account != null && account.isLimited());
+        }
+
+        // Largest amount worth moving before drawing again
+        public long chunk() {
+            return isLimited() ? CHUNK : Long.MAX_VALUE;
+        }
+
+        /**
+         * Accounts for {@code bytes} that were just moved, sleeping until every
+         * level has the tokens for them.
+         */
+        public void consume(long bytes) throws InterruptedIOException {
+            if (bytes <= 0 || !isLimited()) {
+                return;
+            }
+            long wait = Math.max(global.reserve(bytes), session.reserve(bytes));
+            if (account != null) {
+                wait = Math.max(wait, account.reserve(bytes));
+            }
+            long deadline = System.nanoTime() + wait;
+            while (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Transfer interrupted while shaped");
+                }
+                wait = deadline - System.nanoTime();
+            }
+        }
+
+        public OutputStream shape(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    consume(1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        int n = (int) Math.min(len, chunk());
+                        out.write(b, off, n);
+                        consume(n);
+                        off += n;
+                        len -= n;
+                    }
+                }
+            };
+        }
+
+        public InputStream shape(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b != -1) {
+                        consume(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = in.read(b, off, (int) Math.min(len, chunk()));
+                    consume(n);
+                    return n;
+                }
+            };
+        }
+
+        public ReadableByteChannel shape(ReadableByteChannel channel) {
+            return new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int limit = dst.limit();
+                    if (dst.remaining() > chunk()) {
+                        dst.limit(dst.position() + (int) chunk());
+                    }
+                    int n;
+                    try {
+                        n = channel.read(dst);
+                    } finally {
+                        dst.limit(limit);
+                    }
+                    consume(n);
+                    return n;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+    }
+}
@@ -15,9 +15,9 @@ public class Utils {
                 String[] parts = line.trim().split("\\s+");
                 if (parts.length >= 3) {
                     String username = parts[0];
-                    String password = parts[1];
+                    String passwordHash = parts[1];
                     String rootFolder = parts[2];
-                    accounts.add(new Account(username, password, rootFolder));
+                    accounts.add(new Account(username, passwordHash, rootFolder));
                 }
             }
         } catch (IOException e) {
@@ -0,0 +1,112 @@
+package org.example.ftpserver;
+
+/**
+ * Command verbs the server understands. {@link #decode} maps the raw bytes
+ * of a verb to its constant without building a String: the letters are
+ * packed into a long and looked up in a small open-addressed table.
+ */
+public enum Verb {
+    USER(false),
+    PASS(false),
+    QUIT(false),
+    FEAT(false),
+    AUTH(false),
+    PBSZ(false),
+    PROT(false),
+    OPTS(false),
+    NOOP(false),
+    SYST(true),
+    LIST(true),
+    NLST(true),
+    PASV(true),
+    CWD(true),
+    CDUP(true),
+    PWD(true),
+    RETR(true),
+    STOR(true),
+    DELE(true),
+    RMD(true),
+    MKD(true),
+    TYPE(true),
+    MODE(true),
+    ALLO(true),
+    REST(true),
+    SIZE(true),
+    MDTM(true),
+    MLSD(true),
+    MLST(true),
+    HASH(true),
+    XCRC(true),
+    XMD5(true),
+    XSHA256(true),
+    SITE(true),
+    // Anything else; still needs a login so strangers learn nothing about the server
+    UNKNOWN(true);
+
+    private static final int TABLE_SIZE = 128;
+    private static final long[] CODES = new long[TABLE_SIZE];
+    private static final Verb[] VERBS = new Verb[TABLE_SIZE];
+
+    static {
+        for (Verb verb : values()) {
+            if (verb == UNKNOWN) {
+                continue;
+            }
+            long code = 0;
+            for (int i = 0; i < verb.name().length(); i++) {
+                code = (code << 8) | verb.name().charAt(i);
+            }
+            int slot = slot(code);
+            while (VERBS[slot] != null) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            CODES[slot] = code;
+            VERBS[slot] = verb;
+        }
+    }
+
+    private final boolean requiresLogin;
+
+    Verb(boolean requiresLogin) {
+        this.requiresLogin = requiresLogin;
+    }
+
+    public boolean requiresLogin() {
+        return requiresLogin;
+    }
+
+    /**
+     * Looks up the verb in {@code bytes[offset, offset + length)}, ignoring case.
+     *
+     * @return the verb, or {@link #UNKNOWN} if it is not one we know
+     */
+    public static Verb decode(byte[] bytes, int offset, int length) {
+        if (length == 0 || length > 8) {
+            return UNKNOWN;
+        }
+        long code = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int b = bytes[i];
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            } else if ((b < 'A' || b > 'Z') && (b < '0' || b > '9')) {
+                return UNKNOWN;
+            }
+            code = (code << 8) | b;
+        }
+
+        int slot = slot(code);
+        Verb verb;
+        while ((verb = VERBS[slot]) != null) {
+            if (CODES[slot] == code) {
+                return verb;
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return UNKNOWN;
+    }
+
+    private static int slot(long code) {
+        return (int) ((code * 0x9E3779B97F4A7C15L) >>> 57);
+    }
+}